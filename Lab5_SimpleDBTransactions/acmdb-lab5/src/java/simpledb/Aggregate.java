@@ -1,21 +1,68 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates can be computed in the same pass over the
+ * child, grouped by any number of columns; a single aggregate grouped by at
+ * most one column is computed by an {@link IntegerAggregator} or a
+ * {@link StringAggregator}, and other combinations by a
+ * {@link MultiAggregator}.
+ * <p>
+ * The groups are kept in an in-memory {@link Aggregator} limited to a memory
+ * budget. Once it holds as many groups as the budget allows, tuples of the
+ * groups already in memory are still merged into them, while tuples of new
+ * groups are split by a hash of the group-by field into
+ * {@link #SPILL_PARTITIONS} {@link SpillFile}s. After the groups in memory
+ * have been returned, each spilled partition is aggregated by another
+ * Aggregate, which splits it again if its groups still do not fit. Partitions
+ * that have been split MAX_LEVELS times are sorted on the first group-by
+ * field by an {@link OrderBy} and aggregated one value of it at a time.
  */
 public class Aggregate extends Operator {
 
+    /** The default memory budget of the groups, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /** The number of partitions the input is split into when it spills */
+    public static final int SPILL_PARTITIONS = 16;
+
+    // partitions are aggregated by sorting below this many levels of
+    // splitting
+    private static final int MAX_LEVELS = 3;
+
+    // the bytes a group takes in an aggregator besides its result tuple
+    private static final int GROUP_OVERHEAD = 48;
+
     private DbIterator child;
-    private int aField;
-    private int gField;
-    private Aggregator.Op op;
+    private int[] aFields;
+    private int[] gFields;
+    private Aggregator.Op[] ops;
+    private final long memoryBudget;
+    private final int level;
+    // whether the child is sorted on the first group-by field, so that the
+    // groups of each of its values are aggregated as they are read
+    private final boolean sorted;
     private Aggregator aggregator;
     private DbIterator itr;
 
+    // the spilled partitions, null until the groups overflow the memory
+    // budget
+    private transient SpillFile[] spills = null;
+    // the aggregate of the spilled partition being returned
+    private transient Aggregate partitionAggregate = null;
+    private int nextPartition;
+    // the groups of the last value of the first group-by field of a sorted
+    // child, and the first tuple of the next value
+    private transient DbIterator run = null;
+    private transient Tuple pending = null;
+
+    private int spilledPartitions = 0;
+    private long spilledTuples = 0;
+    private long spilledBytes = 0;
+
     private static final long serialVersionUID = 1L;
 
     /**
@@ -38,78 +85,281 @@ public class Aggregate extends Operator {
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	    // some code goes here
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor with the memory budget of the groups.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param memoryBudget
+     *            The number of bytes of groups the aggregator may hold,
+     *            counting each group as its result tuple and a fixed overhead
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, long memoryBudget) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop }, memoryBudget);
+    }
+
+    /**
+     * Constructor for several aggregates computed in one pass over the child.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, or an
+     *            empty array if there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate column
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for several aggregates with the memory budget of the groups.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, or an
+     *            empty array if there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate column
+     * @param memoryBudget
+     *            The number of bytes of groups the aggregator may hold,
+     *            counting each group as its result tuple and a fixed overhead
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            long memoryBudget) {
+        this(child, afields.clone(), gfields.clone(), aops.clone(), memoryBudget, 0, false);
+    }
+
+    private Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            long memoryBudget, int level, boolean sorted) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("each aggregate field needs one operator");
         this.child = child;
-        this.aField = afield;
-        this.gField = gfield;
-        this.op = aop;
+        this.aFields = afields;
+        this.gFields = gfields;
+        this.ops = aops;
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+        this.sorted = sorted;
+        this.aggregator = newAggregator();
+    }
 
-        Type gbFieldType = null;
-        if (gfield != Aggregator.NO_GROUPING) gbFieldType = child.getTupleDesc().getFieldType(gfield);
-        if (child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE)) this.aggregator = new IntegerAggregator(gfield, gbFieldType, afield, aop);
-        else this.aggregator = new StringAggregator(gfield, gbFieldType, afield, aop);
+    private Aggregator newAggregator() {
+        TupleDesc td = child.getTupleDesc();
+        if (aFields.length == 1 && gFields.length <= 1) {
+            int gField = groupField();
+            Type gbFieldType = null;
+            if (gField != Aggregator.NO_GROUPING) gbFieldType = td.getFieldType(gField);
+            if (td.getFieldType(aFields[0]).equals(Type.INT_TYPE)) return new IntegerAggregator(gField, gbFieldType, aFields[0], ops[0]);
+            return new StringAggregator(gField, gbFieldType, aFields[0], ops[0]);
+        }
+        Type[] gbFieldTypes = new Type[gFields.length];
+        for (int i = 0; i < gFields.length; i++)
+            gbFieldTypes[i] = td.getFieldType(gFields[i]);
+        Type[] aFieldTypes = new Type[aFields.length];
+        for (int i = 0; i < aFields.length; i++)
+            aFieldTypes[i] = td.getFieldType(aFields[i]);
+        return new MultiAggregator(gFields, gbFieldTypes, aFields, aFieldTypes, ops);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
         // some code goes here
-        return this.gField;
+        return gFields.length == 0 ? Aggregator.NO_GROUPING : this.gFields[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(this.gField);
+        return gFields.length == 0 ? null : child.getTupleDesc().getFieldName(this.gFields[0]);
+    }
+
+    /**
+     * @return the indexes of the groupby fields in the <b>INPUT</b> tuples,
+     *         which are the first fields of the <b>OUTPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return this.gFields.clone();
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
         // some code goes here
-        return this.aField;
+        return this.aFields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(this.aField);
+        return child.getTupleDesc().getFieldName(this.aFields[0]);
+    }
+
+    /**
+     * @return the indexes of the aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return this.aFields.clone();
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return this.op;
+        return this.ops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.ops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	    return aop.toString();
     }
 
+    /**
+     * @return the number of spilled partitions aggregated so far, including
+     *         the partitions they were split into
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of tuples written to spill files so far
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /**
+     * @return the number of bytes written to spill files so far
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	    // some code goes here
         super.open();
         child.open();
+        this.nextPartition = 0;
+        if (sorted) {
+            this.run = null;
+            this.pending = child.hasNext() ? child.next() : null;
+            return;
+        }
+        this.aggregator = newAggregator();
+        long maxGroups = Math.max(1, memoryBudget / (getTupleDesc().getSize() + GROUP_OVERHEAD));
         while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
+            Tuple tp = child.next();
+            if (spills != null && !aggregator.hasGroup(tp)) {
+                spill(tp);
+                continue;
+            }
+            aggregator.mergeTupleIntoGroup(tp);
+            if (spills == null && gFields.length > 0
+                    && aggregator.numGroups() >= maxGroups)
+                spills = new SpillFile[SPILL_PARTITIONS];
         }
         this.itr = aggregator.iterator();
         this.itr.open();
     }
 
+    /**
+     * @return the partition of the values of the group-by fields of a tuple
+     */
+    private int partition(Tuple t) {
+        int h = 0;
+        for (int gField : gFields)
+            h = 31 * h + t.getField(gField).hashCode();
+        h += level * 0x9e3779b9;
+        h *= 0x85ebca6b;
+        h ^= h >>> 16;
+        return Math.floorMod(h, SPILL_PARTITIONS);
+    }
+
+    private void spill(Tuple t) throws DbException {
+        int p = partition(t);
+        try {
+            if (spills[p] == null)
+                spills[p] = new SpillFile(child.getTupleDesc());
+            spills[p].add(t);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        spilledTuples++;
+        spilledBytes += child.getTupleDesc().getSize();
+    }
+
+    /**
+     * Returns the aggregate of a spilled partition: an Aggregate that splits
+     * it further, or one over the partition sorted on the first group-by
+     * field once it has been split MAX_LEVELS times.
+     */
+    private Aggregate aggregatePartition(int p) {
+        DbIterator it = spills[p].iterator();
+        if (level + 1 < MAX_LEVELS)
+            return new Aggregate(it, aFields, gFields, ops, memoryBudget, level + 1, false);
+        return new Aggregate(new OrderBy(gFields[0], true, it, memoryBudget), aFields, gFields,
+                ops, memoryBudget, level + 1, true);
+    }
+
+    /**
+     * Returns the next group of a child sorted on the first group-by field,
+     * aggregating the tuples of each value of that field together.
+     */
+    private Tuple nextSortedGroup() throws TransactionAbortedException, DbException {
+        while (run == null || !run.hasNext()) {
+            if (pending == null)
+                return null;
+            Aggregator groups = newAggregator();
+            Field f = pending.getField(gFields[0]);
+            while (pending != null && pending.getField(gFields[0]).equals(f)) {
+                groups.mergeTupleIntoGroup(pending);
+                pending = child.hasNext() ? child.next() : null;
+            }
+            run = groups.iterator();
+            run.open();
+        }
+        return run.next();
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -119,20 +369,54 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (sorted) return nextSortedGroup();
         if (this.itr.hasNext()) return this.itr.next();
+        while (spills != null) {
+            if (partitionAggregate != null) {
+                if (partitionAggregate.hasNext())
+                    return partitionAggregate.next();
+                partitionAggregate.close();
+                spilledPartitions += partitionAggregate.spilledPartitions;
+                spilledTuples += partitionAggregate.spilledTuples;
+                spilledBytes += partitionAggregate.spilledBytes;
+                partitionAggregate = null;
+            }
+            if (nextPartition >= SPILL_PARTITIONS)
+                return null;
+            int p = nextPartition++;
+            if (spills[p] == null)
+                continue;
+            spilledPartitions++;
+            partitionAggregate = aggregatePartition(p);
+            partitionAggregate.open();
+        }
         return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
 	    // some code goes here
+        if (sorted) {
+            child.rewind();
+            this.run = null;
+            this.pending = child.hasNext() ? child.next() : null;
+            return;
+        }
+        // the groups in memory and the spilled partitions stay as they are
         this.itr.rewind();
+        if (partitionAggregate != null) {
+            partitionAggregate.close();
+            partitionAggregate = null;
+        }
+        this.nextPartition = 0;
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields come first,
+     * followed by one aggregate value column per aggregate field, in the order
+     * given to the constructor. So with a single aggregate and no group by
+     * field this will have one field - the aggregate column; with a group by
+     * field, the first field will be the group by field, and the second will
+     * be the aggregate value column.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -142,30 +426,35 @@ public class Aggregate extends Operator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc child_td = child.getTupleDesc();
-        String aggName = child_td.getFieldName(aField);
-        Type[] types;
-        String[] names;
-
-        if (gField == Aggregator.NO_GROUPING) {
-            types = new Type[1];
-            names = new String[1];
-            types[0] = Type.INT_TYPE;
-            names[0] = nameOfAggregatorOp(op) + "(" + aggName + ")";
-        } 
-        else {
-            types = new Type[2];
-            names = new String[2];
-            types[0] = child_td.getFieldType(gField);
-            types[1] = Type.INT_TYPE;
-            names[0] = child_td.getFieldName(gField);
-            names[1] = nameOfAggregatorOp(op) + "(" + aggName + ")";
+        Type[] types = new Type[gFields.length + aFields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gFields.length; i++) {
+            types[i] = child_td.getFieldType(gFields[i]);
+            names[i] = child_td.getFieldName(gFields[i]);
+        }
+        for (int i = 0; i < aFields.length; i++) {
+            types[gFields.length + i] = Type.INT_TYPE;
+            names[gFields.length + i] = nameOfAggregatorOp(ops[i]) + "("
+                    + child_td.getFieldName(aFields[i]) + ")";
         }
-        return new TupleDesc(types);
+        return new TupleDesc(types, names);
     }
 
     public void close() {
 	    // some code goes here
-        this.itr.close();
+        if (this.itr != null) this.itr.close();
+        this.itr = null;
+        this.run = null;
+        this.pending = null;
+        if (partitionAggregate != null) {
+            partitionAggregate.close();
+            partitionAggregate = null;
+        }
+        if (spills != null) {
+            for (SpillFile spill : spills)
+                if (spill != null) spill.delete();
+            spills = null;
+        }
         child.close();
         super.close();
     }
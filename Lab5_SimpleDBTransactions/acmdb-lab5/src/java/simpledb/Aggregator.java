@@ -76,6 +76,17 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * @return the number of groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * @return whether the group of the tuple has already been merged into, so
+     *         that merging the tuple does not add a group
+     */
+    public boolean hasGroup(Tuple tup);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -22,9 +22,31 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final DbFileChannel channel;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private int[] keyFields;
+	private boolean compressKeys;
+
+	// cached free page map: the pages freed by committed transactions and the
+	// header pages holding them, loaded from disk on first use
+	private BitSet freePages = null;
+	private ArrayList<BTreePageId> headerIds = null;
+	// the free pages as of the last commit, which the header pages hold on
+	// disk; unlike freePages, it includes the pages allocated by running
+	// transactions
+	private BitSet committedFree = null;
+	// pages allocated from the free page map, pages freed and header pages
+	// created by each running transaction
+	private final HashMap<TransactionId, ArrayList<Integer>> pendingAllocs = new HashMap<TransactionId, ArrayList<Integer>>();
+	private final HashMap<TransactionId, ArrayList<Integer>> pendingFrees = new HashMap<TransactionId, ArrayList<Integer>>();
+	private final HashMap<TransactionId, ArrayList<BTreePageId>> pendingHeaders = new HashMap<TransactionId, ArrayList<BTreePageId>>();
+
+	// the rightmost leaf of the tree as of the last insert and the largest key
+	// on it, used by the append fast path of insertTuple
+	private volatile BTreePageId rightmostLeaf = null;
+	private volatile Field rightmostMax = null;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,12 +57,52 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[] { key }, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields. Tuples are ordered
+	 * lexicographically on the key fields and the keys stored in the tree are
+	 * {@link CompositeField}s.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keys - the fields which index is keyed on, most significant first
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public BTreeFile(File f, int[] keys, TupleDesc td) {
+		if (keys.length == 0)
+			throw new IllegalArgumentException("a B+ tree needs at least one key field");
 		this.f = f;
+		this.channel = new DbFileChannel(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyField = keys[0];
+		this.keyFields = keys.clone();
 		this.td = td;
 	}
 
+	/**
+	 * Constructs a B+ tree file keyed on a string field whose internal pages use
+	 * the compressed key format. Separators copied up from the leaves are
+	 * truncated to the shortest string that still separates the two leaves, and
+	 * internal pages store keys at their actual length, so internal pages hold
+	 * many more entries and the tree is shallower. A file must always be opened
+	 * with the same format it was created with.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compressKeys - whether internal pages use the compressed key format
+	 * @see BTreeInternalPage#BTreeInternalPage(BTreePageId, byte[], int[], boolean)
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compressKeys) {
+		this(f, new int[] { key }, td);
+		if (compressKeys && td.getFieldType(key) != Type.STRING_TYPE)
+			throw new IllegalArgumentException("key compression requires a string key field");
+		this.compressKeys = compressKeys;
+	}
+
 	/**
 	 * Returns the File backing this BTreeFile on disk.
 	 */
@@ -48,6 +110,16 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	/**
+	 * Switch memory-mapped reads of this file on or off. Meant for read-mostly
+	 * indexes that fit in the OS page cache; writes are not affected.
+	 * 
+	 * @see DbFileChannel#setMemoryMapped(boolean)
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		channel.setMemoryMapped(memoryMapped);
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -79,46 +151,25 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
+				readPageData(0, pageBuf);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
 				return p;
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
+				readPageData(pageOffset(id.pageNumber()), pageBuf);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyFields, compressKeys);
 					return p;
 				}
 				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyFields);
 					return p;
 				}
 				else { // id.pgcateg() == BTreePageId.HEADER
@@ -128,17 +179,36 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * Read a whole page from the given offset of the file
+	 * 
+	 * @param offset - the offset of the page in the file
+	 * @param pageBuf - the buffer to read the page into
+	 * @throws IllegalArgumentException if the page is not entirely in the file
+	 * @throws IOException
+	 */
+	private void readPageData(long offset, byte[] pageBuf) throws IOException {
+		int retval = channel.read(offset, pageBuf);
+		if (retval == 0) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < pageBuf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ pageBuf.length + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * @param pageNo - the number of a page other than the root pointer page
+	 * @return the offset of the page in the file
+	 */
+	private static long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo-1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -148,16 +218,15 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
+		if(id.pgcateg() == BTreePageId.HEADER) {
+			markCommittedSlots((BTreeHeaderPage) page);
+		}
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, data);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(pageOffset(page.getId().pageNumber()), data);
 		}
 	}
 	
@@ -170,12 +239,59 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on (the leading
+	 * key field for a composite key)
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
+	/**
+	 * Returns the indices of all the fields that this B+ tree is keyed on
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of the given tuple in this B+ tree
+	 */
+	Field keyOf(Tuple t) {
+		return CompositeField.keyOf(t, keyFields);
+	}
+
+	/**
+	 * Returns the key to copy up into the parent of two adjacent leaf pages, where
+	 * the left page ends with leftKey and the right page starts with rightKey.
+	 * Uncompressed trees copy up leftKey. Trees with compressed keys copy up the
+	 * shortest string s with leftKey <= s <= rightKey (suffix truncation): leftKey
+	 * itself if it is a prefix of rightKey, otherwise the prefix of rightKey one
+	 * character past their longest common prefix.
+	 */
+	private Field separatorKey(Field leftKey, Field rightKey) {
+		if (!compressKeys)
+			return leftKey;
+		String left = ((StringField) leftKey).getValue();
+		String right = ((StringField) rightKey).getValue();
+		int common = 0;
+		while (common < left.length() && common < right.length() 
+				&& left.charAt(common) == right.charAt(common))
+			common++;
+		if (common == left.length())
+			return leftKey;
+		return new StringField(right.substring(0, Math.min(common + 1, right.length())), Type.STRING_LEN);
+	}
+
+	/**
+	 * Split the given compressed internal page if updating one of its keys left
+	 * its entries too large to fit on the page.
+	 */
+	private void splitIfOverfull(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+			BTreeInternalPage page, Field field) throws DbException, IOException, TransactionAbortedException {
+		if (page.isCompressed() && page.getFreeBytes() < 0)
+			splitInternalPage(tid, dirtypages, page, field);
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -239,6 +355,52 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
 	}
 
+	/**
+	 * Fast path of insertTuple for keys that arrive in increasing order. If the
+	 * key is greater than every key of the cached rightmost leaf, and that leaf
+	 * is still the rightmost one, return it locked with read-write permission.
+	 * The leaf is only locked if the key is greater than the cached largest key
+	 * of the leaf, and if it turns out not to qualify, it is unlocked again
+	 * unless the transaction already held a lock on it.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param f - the key of the tuple to insert
+	 * @return the rightmost leaf page, or null if the tuple must be inserted by
+	 * descending from the root
+	 *
+	 * @throws DbException
+	 * @throws TransactionAbortedException
+	 */
+	private BTreeLeafPage getAppendLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f)
+			throws DbException, TransactionAbortedException {
+		BTreePageId pid = rightmostLeaf;
+		Field max = rightmostMax;
+		if(pid == null || max == null || !f.compare(Op.GREATER_THAN, max)) {
+			return null;
+		}
+
+		// lock the leaf for writing right away, as findLeafPage does, since
+		// upgrading a read lock would deadlock concurrent appends, and check
+		// again under the lock that the key still goes to it
+		boolean held = Database.getBufferPool().holdsLock(tid, pid);
+		boolean dirty = dirtypages.containsKey(pid);
+		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+		Iterator<Tuple> it = page.reverseIterator();
+		if(page.getRightSiblingId() != null || !it.hasNext()
+				|| !f.compare(Op.GREATER_THAN, keyOf(it.next()))) {
+			// nothing was read from the page that the insert depends on
+			if(!dirty) {
+				dirtypages.remove(pid);
+			}
+			if(!held) {
+				Database.getBufferPool().releasePage(tid, pid);
+			}
+			return null;
+		}
+		return page;
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -248,6 +410,10 @@ public class BTreeFile implements DbFile {
 	 * 
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
 	 * 
+	 * When the rightmost leaf is split for a key greater than all of its keys, only a tenth
+	 * of the tuples are moved to the new page, so that a sequentially loaded tree has its
+	 * leaves about 90% full instead of half full.
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param page - the leaf page to split
@@ -270,6 +436,13 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
+
+		// splitting the right edge of the tree for a key above all of its keys,
+		// as sequential inserts do: the left page will not receive any more
+		// tuples, so it keeps most of them instead of half
+		boolean append = page.getRightSiblingId() == null && page.getNumTuples() > 1
+				&& field.compare(Op.GREATER_THAN, keyOf(page.reverseIterator().next()));
+
         BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
 		dirtypages.put(page.getId(), page);
 		dirtypages.put(rightPage.getId(), rightPage);
@@ -283,7 +456,7 @@ public class BTreeFile implements DbFile {
 		rightPage.setLeftSiblingId(page.getId());
 		
 		int totalTuples = page.getNumTuples();
-		int rightTuples = totalTuples - totalTuples / 2;
+		int rightTuples = append ? Math.max(1, totalTuples / 10) : totalTuples - totalTuples / 2;
 		Iterator<Tuple> it = page.reverseIterator();
 		Tuple t = null;
 		for (int i = 0; i < rightTuples; ++i) {
@@ -293,14 +466,15 @@ public class BTreeFile implements DbFile {
 		}
 
 		Tuple midTuple = it.next();
-		BTreeEntry cpEntry = new BTreeEntry(midTuple.getField(keyField), page.getId(), rightPage.getId());
+		Field sepKey = separatorKey(keyOf(midTuple), keyOf(rightPage.iterator().next()));
+		BTreeEntry cpEntry = new BTreeEntry(sepKey, page.getId(), rightPage.getId());
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), cpEntry.getKey());
 		parent.insertEntry(cpEntry);
 		page.setParentId(parent.getId());
 		rightPage.setParentId(parent.getId());
 		dirtypages.put(parent.getId(), parent);
 
-		IndexPredicate midPred = new IndexPredicate(Op.LESS_THAN_OR_EQ, midTuple.getField(keyField));
+		IndexPredicate midPred = new IndexPredicate(Op.LESS_THAN_OR_EQ, sepKey);
 		IndexPredicate targetPred = new IndexPredicate(Op.LESS_THAN_OR_EQ, field);
 		if (targetPred.equals(midPred))
 			return page;
@@ -340,6 +514,20 @@ public class BTreeFile implements DbFile {
 		
 		int totalEntries = page.getNumEntries();
 		int rightEntries = (totalEntries - 1) / 2;
+		if (page.isCompressed()) {
+			// move half of the bytes rather than half of the entries
+			rightEntries = 0;
+			int rightBytes = 0;
+			int halfBytes = page.getUsedBytes() / 2;
+			Iterator<BTreeEntry> sizeIt = page.reverseIterator();
+			while (rightEntries < totalEntries - 2) {
+				int size = page.getEntrySize(sizeIt.next().getKey());
+				if (rightEntries > 0 && rightBytes + size > halfBytes)
+					break;
+				rightBytes += size;
+				rightEntries++;
+			}
+		}
 		Iterator<BTreeEntry> it = page.reverseIterator();
 		BTreeEntry e = null;
 		for (int i = 0; i < rightEntries; ++i) {
@@ -515,30 +703,67 @@ public class BTreeFile implements DbFile {
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		insertTuple(tid, dirtypages, t);
+
+		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+		dirtyPagesArr.addAll(dirtypages.values());
+		return dirtyPagesArr;
+	}
+
+	/**
+	 * Insert tuples into this BTreeFile, as insertTuple does for each of them.
+	 * The pages locked for writing for one tuple are kept in the local cache
+	 * for the next ones, so they are not fetched from the buffer pool again.
+	 * 
+	 * @param tid - the transaction id
+	 * @param tuples - the tuples to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		for(Tuple t : tuples) {
+			insertTuple(tid, dirtypages, t);
+		}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+		dirtyPagesArr.addAll(dirtypages.values());
+		return dirtyPagesArr;
+	}
+
+	private void insertTuple(TransactionId tid, HashMap<PageId, Page> dirtypages, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		// a key above every key of the tree goes to the rightmost leaf, which
+		// is locked directly without descending from the root
+		BTreeLeafPage leafPage = getAppendLeafPage(tid, dirtypages, keyOf(t));
+
+		if(leafPage == null) {
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+			// find and lock the left-most leaf page corresponding to the key field
+			leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, keyOf(t));
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// split the leaf page if there are no more slots available
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, keyOf(t));	
 		}
 
 		// insert the tuple into the leaf page
 		leafPage.insertTuple(t);
-
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-		dirtyPagesArr.addAll(dirtypages.values());
-		return dirtyPagesArr;
+		if(leafPage.getRightSiblingId() == null) {
+			rightmostMax = keyOf(leafPage.reverseIterator().next());
+			rightmostLeaf = leafPage.getId();
+		}
 	}
 	
 	/**
@@ -625,6 +850,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -636,6 +862,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
@@ -672,7 +899,7 @@ public class BTreeFile implements DbFile {
 				page.insertTuple(t);
 			}
 			if (t == null) throw new DbException("no tuple to set as entry");
-			entry.setKey(t.getField(keyField));
+			entry.setKey(separatorKey(keyOf(t), keyOf(sibling.iterator().next())));
 		}
 		else {
 			Tuple t = null;
@@ -684,7 +911,7 @@ public class BTreeFile implements DbFile {
 			}
 			t = it.next();
 			if (t == null) throw new DbException("no tuple to set as entry");
-			entry.setKey(t.getField(keyField));
+			entry.setKey(separatorKey(keyOf(t), keyOf(page.iterator().next())));
 		}
 		parent.updateEntry(entry);
 	}
@@ -716,31 +943,64 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(leftSibling.canMerge(page, leftEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(rightSibling.canMerge(page, rightEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
 	
+	/**
+	 * Compute how many entries to move from a sibling into an underfull internal page, in
+	 * addition to the key rotated down from the parent, so that the two pages end up evenly
+	 * filled: by number of entries for the fixed format, by bytes for compressed pages.
+	 * 
+	 * @param page - the internal page which is less than half full
+	 * @param sibling - the sibling which has entries to spare
+	 * @param parentEntry - the entry in the parent pointing to the two internal pages
+	 * @param it - an iterator over the sibling's entries, starting next to the page
+	 */
+	private int numEntriesToSteal(BTreeInternalPage page, BTreeInternalPage sibling, 
+			BTreeEntry parentEntry, Iterator<BTreeEntry> it) {
+		int numEntries = page.getNumEntries();
+		int numSibEntries = sibling.getNumEntries();
+		if (!page.isCompressed())
+			return (numEntries + numSibEntries) / 2 - numEntries - 1;
+
+		int pageBytes = page.getUsedBytes() + page.getEntrySize(parentEntry.getKey());
+		int sibBytes = sibling.getUsedBytes();
+		int numMvEntries = 0;
+		// the sibling keeps at least one entry after one more is pushed up to the parent
+		while (numMvEntries < numSibEntries - 2) {
+			int size = sibling.getEntrySize(it.next().getKey());
+			if (pageBytes + size > sibBytes - size)
+				break;
+			pageBytes += size;
+			sibBytes -= size;
+			numMvEntries++;
+		}
+		return numMvEntries;
+	}
+
 	/**
 	 * Steal entries from the left sibling and copy them to the given page so that both pages are at least
 	 * half full. Keys can be thought of as rotating through the parent entry, so the original key in the 
@@ -763,9 +1023,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
-		int numEntries = page.getNumEntries();
-		int numSibEntries = leftSibling.getNumEntries();
-		int numMvEntries = (numEntries + numSibEntries) / 2 - numEntries - 1;
+		int numMvEntries = numEntriesToSteal(page, leftSibling, parentEntry, leftSibling.reverseIterator());
 
 		BTreePageId RLChild = page.iterator().next().getLeftChild();
 		BTreePageId LRChild = leftSibling.reverseIterator().next().getRightChild();
@@ -817,9 +1075,7 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
-		int numEntries = page.getNumEntries();
-		int numSibEntries = rightSibling.getNumEntries();
-		int numMvEntries = (numEntries + numSibEntries) / 2 - numEntries - 1;
+		int numMvEntries = numEntriesToSteal(page, rightSibling, parentEntry, rightSibling.iterator());
 
 		BTreePageId LRChild = page.reverseIterator().next().getRightChild();
 		BTreePageId RLChild = rightSibling.iterator().next().getLeftChild();
@@ -973,8 +1229,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -989,7 +1244,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isUnderfull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1041,13 +1296,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.append(emptyRootPtrData);
+				channel.append(emptyLeafData);
 			}
 		}
 
@@ -1056,12 +1308,16 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Get the page number of the first empty page in this BTreeFile.
-	 * Creates a new page if none of the existing pages are empty.
+	 * Get the page number of an empty page in this BTreeFile. Pages freed
+	 * earlier by the same transaction are reused first, then the free pages of
+	 * the cached free page map. Creates a new page if no page is free. The
+	 * allocation is written to the header pages when the transaction commits,
+	 * so no header page is locked here.
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @return the page number of the first empty page
+	 * @return the page number of the empty page
+	 * @see #transactionComplete(TransactionId, boolean)
 	 * 
 	 * @throws DbException
 	 * @throws IOException
@@ -1069,50 +1325,29 @@ public class BTreeFile implements DbFile {
 	 */
 	protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages) 
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
-		int emptyPageNo = 0;
-
-		if(headerId != null) {
-			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-			int headerPageCount = 0;
-			// try to find a header page with an empty slot
-			while(headerPage != null && headerPage.getEmptySlot() == -1) {
-				headerId = headerPage.getNextPageId();
-				if(headerId != null) {
-					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-					headerPageCount++;
-				}
-				else {
-					headerPage = null;
-				}
-			}
+		synchronized(this) {
+			loadFreePages();
 
-			// if headerPage is not null, it must have an empty slot
-			if(headerPage != null) {
-				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-				int emptySlot = headerPage.getEmptySlot();
-				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+			// a page freed by this transaction can be reused right away, since
+			// an abort rolls back both the free and the reuse
+			ArrayList<Integer> freed = pendingFrees.get(tid);
+			if(freed != null && !freed.isEmpty()) {
+				return freed.remove(freed.size() - 1);
 			}
-		}
 
-		// at this point if headerId is null, either there are no header pages 
-		// or there are no free slots
-		if(headerId == null) {		
-			synchronized(this) {
+			// otherwise take a page freed by a committed transaction
+			int emptyPageNo = freePages.nextSetBit(1);
+			if(emptyPageNo <= 0) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				channel.append(emptyData);
+				return numPages();
 			}
+			// an abort returns the page to the free page map
+			freePages.clear(emptyPageNo);
+			pendingChanges(pendingAllocs, tid).add(emptyPageNo);
+			return emptyPageNo;
 		}
-
-		return emptyPageNo; 
 	}
 	
 	/**
@@ -1138,10 +1373,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1151,13 +1383,16 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Mark a page in this BTreeFile as empty. Find the corresponding header page 
-	 * (create it if needed), and mark the corresponding slot in the header page as empty.
+	 * Mark a page in this BTreeFile as empty. The page only becomes available to
+	 * other transactions once this transaction commits, and the corresponding
+	 * header page slot is cleared at that time. Header pages are created here
+	 * if no header page covers the page yet.
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param emptyPageNo - the page number of the empty page
 	 * @see #getEmptyPage(TransactionId, HashMap, int)
+	 * @see #transactionComplete(TransactionId, boolean)
 	 * 
 	 * @throws DbException
 	 * @throws IOException
@@ -1165,75 +1400,191 @@ public class BTreeFile implements DbFile {
 	 */
 	protected void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int emptyPageNo) 
 			throws DbException, IOException, TransactionAbortedException {
-
-		// if this is the last page in the file (and not the only page), just 
-		// truncate the file
-		// @TODO: Commented out because we should probably do this somewhere else in case the transaction aborts....
-//		synchronized(this) {
-//			if(emptyPageNo == numPages()) {
-//				if(emptyPageNo <= 1) {
-//					// if this is the only page in the file, just return.
-//					// It just means we have an empty root page
-//					return;
-//				}
-//				long newSize = f.length() - BufferPool.getPageSize();
-//				FileOutputStream fos = new FileOutputStream(f, true);
-//				FileChannel fc = fos.getChannel();
-//				fc.truncate(newSize);
-//				fc.close();
-//				fos.close();
-//				return;
-//			}
-//		}
-
-		// otherwise, get a read lock on the root pointer page and use it to locate 
-		// the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
-		BTreePageId prevId = null;
-		int headerPageCount = 0;
+		BTreePageId prevId;
+		int headerPageCount;
+		synchronized(this) {
+			loadFreePages();
+			ArrayList<BTreePageId> headers = getHeaderIds(tid);
+			headerPageCount = headers.size();
+			prevId = headerPageCount == 0 ? null : headers.get(headerPageCount - 1);
+		}
 
 		// if there are no header pages, create the first header page and update
 		// the header pointer in the BTreeRootPtrPage
-		if(headerId == null) {
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+		if(prevId == null) {
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
-			headerId = headerPage.getId();
 			headerPage.init();
-			rootPtr.setHeaderId(headerId);
-		}
+			rootPtr.setHeaderId(headerPage.getId());
 
-		// iterate through all the existing header pages to find the one containing the slot
-		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
-			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-			prevId = headerId;
-			headerId = headerPage.getNextPageId();
+			prevId = headerPage.getId();
 			headerPageCount++;
+			synchronized(this) {
+				pendingChanges(pendingHeaders, tid).add(prevId);
+			}
 		}
 
-		// at this point headerId should either be null or set with 
-		// the headerPage containing the slot corresponding to emptyPageNo.
-		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		// add header pages until we have one with a slot corresponding to emptyPageNo
+		while(headerPageCount * BTreeHeaderPage.getNumSlots() <= emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
-			headerId = headerPage.getId();
 			headerPage.init();
 			headerPage.setPrevPageId(prevId);
-			prevPage.setNextPageId(headerId);
+			prevPage.setNextPageId(headerPage.getId());
 			
+			prevId = headerPage.getId();
 			headerPageCount++;
-			prevId = headerId;
+			synchronized(this) {
+				pendingChanges(pendingHeaders, tid).add(prevId);
+			}
 		}
 
-		// now headerId should be set with the headerPage containing the slot corresponding to 
-		// emptyPageNo
-		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
-		headerPage.markSlotUsed(emptySlot, false);
+		synchronized(this) {
+			pendingChanges(pendingFrees, tid).add(emptyPageNo);
+			if(rightmostLeaf != null && rightmostLeaf.pageNumber() == emptyPageNo) {
+				rightmostLeaf = null;
+			}
+		}
+	}
+
+	/**
+	 * Read the free page map from the header pages on disk, which hold the state
+	 * left by committed transactions. Does nothing if the map is already loaded.
+	 * Must be called while holding the lock on this BTreeFile.
+	 */
+	private void loadFreePages() {
+		if(freePages != null) {
+			return;
+		}
+		freePages = new BitSet();
+		committedFree = new BitSet();
+		headerIds = new ArrayList<BTreePageId>();
+		if(f.length() < BTreeRootPtrPage.getPageSize()) {
+			return;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) readPage(BTreeRootPtrPage.getId(tableid));
+		BTreePageId headerId = rootPtr.getHeaderId();
+		while(headerId != null) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) readPage(headerId);
+			int base = headerIds.size() * BTreeHeaderPage.getNumSlots();
+			for(int i = 0; i < BTreeHeaderPage.getNumSlots(); i++) {
+				if(!headerPage.isSlotUsed(i)) {
+					freePages.set(base + i);
+				}
+			}
+			headerIds.add(headerId);
+			headerId = headerPage.getNextPageId();
+		}
+		committedFree.or(freePages);
+	}
+
+	/**
+	 * @return the header pages of this file, including the ones created by a
+	 * transaction that has not committed yet. Must be called while holding the
+	 * lock on this BTreeFile.
+	 */
+	private ArrayList<BTreePageId> getHeaderIds(TransactionId tid) {
+		ArrayList<BTreePageId> headers = new ArrayList<BTreePageId>(headerIds);
+		if(pendingHeaders.containsKey(tid)) {
+			headers.addAll(pendingHeaders.get(tid));
+		}
+		return headers;
+	}
+
+	private static <T> ArrayList<T> pendingChanges(HashMap<TransactionId, ArrayList<T>> changes, TransactionId tid) {
+		ArrayList<T> list = changes.get(tid);
+		if(list == null) {
+			list = new ArrayList<T>();
+			changes.put(tid, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Called by the BufferPool when a transaction that locked pages of this file
+	 * completes, before its pages are flushed or rolled back. On commit, the
+	 * pages the transaction allocated and freed are applied to the committed
+	 * free page map, and the freed pages become available to other
+	 * transactions. The header pages covering them are written to disk under
+	 * the lock on this BTreeFile rather than locked in the buffer pool, so that
+	 * transactions allocating and freeing pages do not wait for each other on
+	 * a header page; any copy of a header page the buffer pool writes later
+	 * gets the committed slots too. On abort, the pages it allocated go back to
+	 * the free page map.
+	 * 
+	 * @param tid - the transaction id
+	 * @param commit - whether the transaction commits or aborts
+	 * @throws IOException
+	 */
+	void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		ArrayList<Integer> allocated;
+		ArrayList<Integer> freed;
+		ArrayList<BTreePageId> headers;
+		synchronized(this) {
+			if(!commit) {
+				// the rightmost leaf may have been created by this transaction
+				rightmostLeaf = null;
+			}
+			if(freePages == null) {
+				return;
+			}
+			headers = getHeaderIds(tid);
+			allocated = pendingAllocs.remove(tid);
+			freed = pendingFrees.remove(tid);
+			pendingHeaders.remove(tid);
+			if(!commit) {
+				if(allocated != null) {
+					for(int pageNo : allocated) {
+						freePages.set(pageNo);
+					}
+				}
+				return;
+			}
+
+			headerIds = headers;
+			TreeSet<Integer> changed = new TreeSet<Integer>();
+			if(allocated != null) {
+				for(int pageNo : allocated) {
+					committedFree.clear(pageNo);
+					changed.add(pageNo / BTreeHeaderPage.getNumSlots());
+				}
+			}
+			if(freed != null) {
+				for(int pageNo : freed) {
+					committedFree.set(pageNo);
+					freePages.set(pageNo);
+					changed.add(pageNo / BTreeHeaderPage.getNumSlots());
+				}
+			}
+			// the header pages created by the transaction are written again
+			// when the buffer pool flushes them
+			for(int headerPageCount : changed) {
+				writePage(readPage(headerIds.get(headerPageCount)));
+			}
+		}
+	}
+
+	/**
+	 * Set the slots of a header page from the committed free page map, before
+	 * the page is written to disk. The slots of a copy of the page in the
+	 * buffer pool may be older than the map, but are never read. Does nothing
+	 * if the page is not a header page of this file yet, or the map has not
+	 * been loaded.
+	 */
+	private synchronized void markCommittedSlots(BTreeHeaderPage headerPage) {
+		if(committedFree == null) {
+			return;
+		}
+		int headerPageCount = headerIds.indexOf(headerPage.getId());
+		if(headerPageCount < 0) {
+			return;
+		}
+		int base = headerPageCount * BTreeHeaderPage.getNumSlots();
+		for(int i = 0; i < BTreeHeaderPage.getNumSlots(); i++) {
+			headerPage.markSlotUsed(i, !committedFree.get(base + i));
+		}
 	}
 
 	/**
@@ -1356,6 +1707,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	TransactionId tid;
 	BTreeFile f;
 	IndexPredicate ipred;
+	Field value;
+	Field prefix;
 
 	/**
 	 * Constructor for this iterator
@@ -1374,15 +1727,30 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
+		int numKeys = f.keyFields().length;
+		value = ipred.getField();
+		prefix = null;
+		if(value instanceof CompositeField) {
+			int n = ((CompositeField) value).numFields();
+			if(n > numKeys)
+				throw new DbException("index predicate has more columns than the index key");
+			// all but the last column of the predicate value must match exactly
+			if(n > 1)
+				prefix = ((CompositeField) value).prefix(n - 1);
+		}
+		else if(numKeys > 1) {
+			value = new CompositeField(value);
+		}
+
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, value);
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, prefix);
 		}
 		it = curp.iterator();
 	}
@@ -1400,7 +1768,17 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				Field key = f.keyOf(t);
+				if(prefix != null) {
+					if(key.compare(Op.LESS_THAN, prefix)) {
+						continue;
+					}
+					else if(key.compare(Op.GREATER_THAN, prefix)) {
+						// past the range of keys sharing the equality prefix
+						return null;
+					}
+				}
+				if (key.compare(ipred.getOp(), value)) {
 					return t;
 				}
 				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
@@ -1409,7 +1787,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 					return null;
 				}
 				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+						key.compare(Op.GREATER_THAN, value)) {
 					// if the tuple is now greater than the field passed in and the operation
 					// is equals, we have reached the end
 					return null;
@@ -18,6 +18,7 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	private final boolean compressed;
 	
 	private int childCategory; // either leaf or internal
 
@@ -37,7 +38,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (!isUnderfull());
 		}
 	}
 	
@@ -66,7 +67,38 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeInternalPage keyed on one or more fields; entries of a page
+	 * keyed on several fields hold {@link CompositeField} keys.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyIds - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyIds) throws IOException {
+		this(id, data, keyIds, false);
+	}
+
+	/**
+	 * Create a BTreeInternalPage, optionally in the compressed format for string
+	 * keys. A compressed page stores only the used entries, each as a child pointer,
+	 * a one byte key length and the key characters, so short keys (such as the
+	 * truncated separators produced by {@link BTreeFile}) take less room and the
+	 * page holds many more entries. The parent pointer, child category, header and
+	 * the first child pointer come first, as in the fixed format.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyIds - the fields which the index is keyed on, most significant first
+	 * @param compressed - whether the page uses the compressed string key format;
+	 *        requires a single key field of type STRING_TYPE
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyIds, boolean compressed) throws IOException {
+		super(id, keyIds);
+		this.compressed = compressed;
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -87,6 +119,14 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (compressed) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -98,7 +138,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,7 +154,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		// the shortest compressed entry is an empty key: just its length byte
+		int keySize = compressed ? 1 : getKeySize();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -145,7 +185,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields,compressed);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -161,6 +201,116 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * @return true if this page uses the compressed string key format
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return the number of bytes an entry with the given key takes on this page
+	 */
+	public int getEntrySize(Field key) {
+		if (compressed)
+			return INDEX_SIZE + 1 + ((StringField) key).getValue().length();
+		return INDEX_SIZE + getKeySize();
+	}
+
+	/**
+	 * @return the number of bytes available for entries (keys and their right
+	 * child pointers) on this page
+	 */
+	public int getEntryCapacity() {
+		if (compressed)
+			return BufferPool.getPageSize() - (2 * INDEX_SIZE + 1 + header.length);
+		return getMaxEntries() * getEntrySize(null);
+	}
+
+	/**
+	 * @return the number of bytes used by the entries on this page
+	 */
+	public int getUsedBytes() {
+		int used = 0;
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				used += getEntrySize(keys[i]);
+		return used;
+	}
+
+	/**
+	 * @return the number of bytes still available for entries; negative if the
+	 * entries do not fit in a compressed page any more and it must be split
+	 */
+	public int getFreeBytes() {
+		return getEntryCapacity() - getUsedBytes();
+	}
+
+	/**
+	 * @return true if this page is below the minimum occupancy of a non-root
+	 * internal page: less than half of the entries for the fixed format, less
+	 * than a quarter of the bytes for the compressed one, which leaves room for
+	 * a split of variable sized entries to produce two pages above the minimum.
+	 */
+	public boolean isUnderfull() {
+		if (compressed)
+			return getUsedBytes() < getEntryCapacity() / 4;
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() > maxEmptySlots;
+	}
+
+	/**
+	 * Decide whether this page and its underfull sibling should be merged rather
+	 * than have entries redistributed between them. For the fixed format this is
+	 * the case when this page is itself at minimum occupancy; a compressed page
+	 * is merged when both pages and the separating key from the parent fit on it.
+	 *
+	 * @param sibling - the underfull sibling
+	 * @param parentKey - the key in the parent separating the two pages
+	 */
+	public boolean canMerge(BTreeInternalPage sibling, Field parentKey) {
+		if (compressed)
+			return getNumEntries() + sibling.getNumEntries() + 1 <= getMaxEntries() &&
+					getUsedBytes() + sibling.getUsedBytes() + getEntrySize(parentKey) <= getEntryCapacity();
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() >= maxEmptySlots;
+	}
+
+	/**
+	 * Read the used entries of a compressed page.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		keys[0] = null;
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			if (i > 0) {
+				byte[] bs = new byte[dis.readUnsignedByte()];
+				dis.readFully(bs);
+				keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+			}
+		}
+	}
+
+	/**
+	 * Write the used entries of a compressed page.
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) throws IOException {
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			dos.writeInt(children[i]);
+			if (i > 0) {
+				String key = ((StringField) keys[i]).getValue();
+				dos.writeByte(key.length());
+				dos.writeBytes(key);
+			}
+		}
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -168,7 +318,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeySize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -181,7 +331,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -262,6 +412,20 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		if (compressed) {
+			int zerolen = getFreeBytes();
+			if (zerolen < 0)
+				throw new IllegalStateException("compressed internal page " + pid.pageNumber() + " overflows by " + (-zerolen) + " bytes");
+			try {
+				writeCompressedEntries(dos);
+				dos.write(new byte[zerolen], 0, zerolen);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -269,7 +433,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeySize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -316,7 +480,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeySize() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -400,6 +564,9 @@ public class BTreeInternalPage extends BTreePage {
 	 * @throws DbException if this entry is not on this page, entry slot is
 	 *         already empty, or updating this key would put the entry out of 
 	 *         order on the page
+	 * <p>
+	 * A longer key may leave a compressed page overfull (negative
+	 * {@link #getFreeBytes()}); the caller must then split the page.
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
 		RecordId rid = e.getRecordId();
@@ -441,9 +608,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKeyType(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
+		if (compressed && getFreeBytes() < getEntrySize(e.getKey()))
+			throw new DbException("called insertEntry on page with no room for the entry.");
+
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
 			throw new DbException("table id mismatch in insertEntry");
 
@@ -457,7 +627,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().pageNumber();
 			children[1] = e.getRightChild().pageNumber();
 			keys[1] = e.getKey();
@@ -562,13 +732,24 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		return numSlots - getNumFreeSlots() - 1;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. For a compressed page this
+	 * is the number of entries with a key of maximum length that still fit.
 	 */
 	public int getNumEmptySlots() {
+		if (compressed)
+			return Math.min(getNumFreeSlots(), 
+					Math.max(0, getFreeBytes()) / (INDEX_SIZE + 1 + Type.STRING_LEN));
+		return getNumFreeSlots();
+	}
+
+	/**
+	 * Returns the number of unused entry slots on this page.
+	 */
+	private int getNumFreeSlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
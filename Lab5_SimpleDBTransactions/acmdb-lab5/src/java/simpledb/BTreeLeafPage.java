@@ -26,8 +26,9 @@ public class BTreeLeafPage extends BTreePage {
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			Field f = (fieldid == keyField) ? keyOf(t) : t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, f));
+			prev = f;
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
@@ -35,7 +36,8 @@ public class BTreeLeafPage extends BTreePage {
 			assert(prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
 		}
 
-		if (checkoccupancy && depth > 0) {
+		// the rightmost leaf may be underfull after an append split
+		if (checkoccupancy && depth > 0 && getRightSiblingId() != null) {
 			assert(getNumTuples() >= getMaxTuples()/2);
 		}
 	}
@@ -62,7 +64,19 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeLeafPage keyed on one or more fields; tuples are kept sorted
+	 * lexicographically on the key fields.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keys - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keys) throws IOException {
+		super(id, keys);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -137,7 +151,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -324,10 +338,10 @@ public class BTreeLeafPage extends BTreePage {
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
+		Field key = keyOf(t);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(keyOf(tuples[i]).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -22,6 +22,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -52,11 +53,67 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) throws IOException {
+		this(id, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreePage keyed on one or more fields. Keys over several fields
+	 * are represented as {@link CompositeField}s and compare lexicographically.
+	 *
+	 * @param id - the id of this page
+	 * @param keys - the fields which the index is keyed on, most significant first
+	 */
+	public BTreePage(BTreePageId id, int[] keys) throws IOException {
 		this.pid = id;
-		this.keyField = key;
+		this.keyField = keys[0];
+		this.keyFields = keys.clone();
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of the given tuple on this page's key fields
+	 */
+	protected Field keyOf(Tuple t) {
+		return CompositeField.keyOf(t, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes needed to store one key
+	 */
+	protected int getKeySize() {
+		int size = 0;
+		for (int k : keyFields)
+			size += td.getFieldType(k).getLen();
+		return size;
+	}
+
+	/**
+	 * Read one key from the given stream
+	 */
+	protected Field parseKey(DataInputStream dis) throws java.text.ParseException {
+		if (keyFields.length == 1)
+			return td.getFieldType(keyField).parse(dis);
+		Field[] values = new Field[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++)
+			values[i] = td.getFieldType(keyFields[i]).parse(dis);
+		return new CompositeField(values);
+	}
+
+	/**
+	 * @return true if the given field has the type of this page's keys
+	 */
+	protected boolean isKeyType(Field f) {
+		if (keyFields.length == 1)
+			return f.getType().equals(td.getFieldType(keyField));
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length)
+			return false;
+		for (int i = 0; i < keyFields.length; i++) {
+			if (!((CompositeField) f).getField(i).getType().equals(td.getFieldType(keyFields[i])))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
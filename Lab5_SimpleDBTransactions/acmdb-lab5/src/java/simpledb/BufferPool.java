@@ -214,8 +214,10 @@ public class BufferPool {
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        synchronized (pid2Lock.get(p)) {
-            return pid2Lock.get(p).isHolding(tid);
+        PageLock lock = pid2Lock.get(p);
+        if (lock == null) return false;
+        synchronized (lock) {
+            return lock.isHolding(tid);
         }
     }
 
@@ -230,8 +232,18 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         Set<PageId> lockedPages = tid2Pid.get(tid);
-        tid2Pid.remove(tid);
         if (lockedPages == null) return;
+        // let B+ trees write their page allocations to their header pages
+        // before the pages of the transaction are flushed or rolled back, and
+        // heap files update their free-space maps
+        Set<Integer> tableIds = new HashSet<>();
+        for (PageId pid : lockedPages) tableIds.add(pid.getTableId());
+        for (int tableId : tableIds) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            if (file instanceof BTreeFile) ((BTreeFile) file).transactionComplete(tid, commit);
+            else if (file instanceof HeapFile) ((HeapFile) file).transactionComplete(tid, commit);
+        }
+        tid2Pid.remove(tid);
         for (PageId pid : lockedPages) {
             if (pageId2Loc.containsKey(pid)) {
                 Page page = pageBuffer[pageId2Loc.get(pid)];
@@ -253,6 +265,13 @@ public class BufferPool {
                 pid2Lock.get(pid).releaseLock(tid);
             }
         }
+        // heap files persist their zone maps once the pages are on disk
+        if (commit) {
+            for (int tableId : tableIds) {
+                DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+                if (file instanceof HeapFile) ((HeapFile) file).writeZoneMap();
+            }
+        }
     }
 
     /**
@@ -275,41 +294,25 @@ public class BufferPool {
         // some code goes here
         DbFile targetTable = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> dirtyPages = targetTable.insertTuple(tid, t);
-        synchronized (this) {
-            
-            for (Page dirtyPage : dirtyPages) {
-                PageId pid = dirtyPage.getId();
-                if (this.pageId2Loc.containsKey(pid)) {
-                    LRUList.remove(pid);
-                    LRUList.addLast(pid);
-                    pageBuffer[pageId2Loc.get(pid)] = dirtyPage;
-                }
-                else {
-                    int index = pageBuffer.length;
-                    for (int i = 0; i < pageBuffer.length; ++i) {
-                        if (!pageBufferUsed[i]) {
-                            index = i;
-                            break;
-                        }
-                    }
-                    while (index >= pageBuffer.length) {
-                        this.evictPage();
-                        for (int i = 0; i < pageBuffer.length; ++i) {
-                            if (!pageBufferUsed[i]) {
-                                index = i;
-                                break;
-                            }
-                        }
-                    }
-                    pageBuffer[index] = dirtyPage;
-                    pageBufferUsed[index] = true;
-                    pageId2Loc.put(pid, index);
-                    LRUList.addLast(pid);
-                    dirtyPage.setBeforeImage();
-                }
-                dirtyPage.markDirty(true, tid);
-            }
-        }
+        cacheDirtyPages(tid, dirtyPages);
+    }
+
+    /**
+     * Add tuples to the specified table on behalf of transaction tid, as
+     * insertTuple does for one tuple. The table is looked up once and the
+     * pages dirtied by the whole batch are cached and marked dirty once, so
+     * bulk loads do not pay the per-tuple overhead of insertTuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @see DbFile#insertTuples(TransactionId, Iterable)
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile targetTable = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> dirtyPages = targetTable.insertTuples(tid, tuples);
+        cacheDirtyPages(tid, dirtyPages);
     }
 
     /**
@@ -330,6 +333,15 @@ public class BufferPool {
         // some code goes here
         DbFile targetTable = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         ArrayList<Page> dirtyPages = targetTable.deleteTuple(tid, t);
+        cacheDirtyPages(tid, dirtyPages);
+    }
+
+    /**
+     * Marks the pages dirtied by an insert or a delete as dirty and adds them
+     * to the cache, replacing any existing versions of those pages.
+     */
+    private void cacheDirtyPages(TransactionId tid, ArrayList<Page> dirtyPages)
+        throws DbException {
         synchronized (this) {
             
             for (Page dirtyPage : dirtyPages) {
@@ -178,7 +178,23 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //options after the fields: "slotted" or "pax" select the page
+                //format, "compressed" stores the pages compressed
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.toLowerCase().equals("slotted"))
+                        format = HeapFile.PageFormat.SLOTTED;
+                    else if (option.toLowerCase().equals("pax"))
+                        format = HeapFile.PageFormat.PAX;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table format " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, format, compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
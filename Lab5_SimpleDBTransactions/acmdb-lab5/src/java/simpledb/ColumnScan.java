@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan that only returns some of the columns of a
+ * heap file, in the order given. On a heap file in the PAX format the columns
+ * are read page by page from the minipages, integer columns into primitive
+ * arrays, so the columns a query does not reference are never decoded. On
+ * heap files in other formats the columns are copied out of each tuple.
+ *
+ * @see PaxPage
+ */
+public class ColumnScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final int[] columns;
+    private final TupleDesc td;
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+
+    private boolean isOpen = false;
+    private int pageNo;
+    private HeapPageId pid;
+    // the used slots of the current PAX page, and the values read from them
+    private int[] slots;
+    private int[][] intValues;
+    private Field[][] values;
+    private int pos;
+    // the tuples of the current page in another format
+    private Iterator<Tuple> rows;
+
+    /**
+     * Creates a scan over some columns of the specified heap file.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName
+     * @param columns
+     *            the indexes of the columns to return, at least one
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        super(tid, tableid, tableAlias);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a heap file");
+        if (columns.length == 0)
+            throw new IllegalArgumentException("no column to scan");
+        this.tid = tid;
+        this.file = (HeapFile) f;
+        this.columns = columns.clone();
+        TupleDesc tableTd = file.getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = tableTd.getFieldType(columns[k]);
+            names[k] = tableAlias + "." + tableTd.getFieldName(columns[k]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the indexes in the table of the columns returned
+     */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * Push a predicate on a field of the tuples of this scan down to the
+     * heap file, so that pages its zone map rules out are not read.
+     *
+     * @see SeqScan#pushDownPredicate(Predicate)
+     */
+    public void pushDownPredicate(Predicate p) {
+        predicates.add(new Predicate(columns[p.getField()], p.getOp(), p.getOperand()));
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pageNo = -1;
+        slots = null;
+        rows = null;
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Read the next page that may hold matching tuples
+     *
+     * @return false if there are no more pages
+     */
+    private boolean readNextPage() throws DbException, TransactionAbortedException {
+        pageNo = file.nextPage(pageNo + 1, predicates);
+        if (pageNo >= file.numPages())
+            return false;
+        pid = new HeapPageId(file.getId(), pageNo);
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        if (page instanceof PaxPage) {
+            PaxPage pax = (PaxPage) page;
+            slots = pax.getUsedSlots();
+            intValues = new int[columns.length][];
+            values = new Field[columns.length][];
+            for (int k = 0; k < columns.length; k++) {
+                if (td.getFieldType(k) == Type.INT_TYPE)
+                    intValues[k] = pax.getIntColumn(columns[k], slots);
+                else
+                    values[k] = pax.getColumn(columns[k], slots);
+            }
+            pos = 0;
+        } else {
+            slots = null;
+            rows = ((HeapPage) page).iterator();
+        }
+        return true;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            return false;
+        while (true) {
+            if (slots != null && pos < slots.length)
+                return true;
+            if (slots == null && rows != null && rows.hasNext())
+                return true;
+            if (!readNextPage())
+                return false;
+        }
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = new Tuple(td);
+        if (slots != null) {
+            for (int k = 0; k < columns.length; k++)
+                t.setField(k, intValues[k] != null ? new IntField(intValues[k][pos]) : values[k][pos]);
+            t.setRecordId(new RecordId(pid, slots[pos]));
+            pos++;
+        } else {
+            Tuple row = rows.next();
+            for (int k = 0; k < columns.length; k++)
+                t.setField(k, row.getField(columns[k]));
+            t.setRecordId(row.getRecordId());
+        }
+        return t;
+    }
+
+    public void close() {
+        isOpen = false;
+        slots = null;
+        rows = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
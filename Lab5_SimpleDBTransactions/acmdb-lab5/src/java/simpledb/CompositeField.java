@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several key columns, used as the
+ * key of a B+ tree indexed on more than one field. Composite fields compare
+ * lexicographically, column by column. When the two sides have a different
+ * number of columns only the shared leading columns are compared, so a shorter
+ * CompositeField acts as a prefix of a longer one.
+ *
+ * @see BTreeFile
+ * @see IndexPredicate
+ */
+public class CompositeField implements Field {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Field[] fields;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fields
+	 *            The column values of this key, most significant first.
+	 */
+	public CompositeField(Field... fields) {
+		if (fields == null || fields.length == 0)
+			throw new IllegalArgumentException("composite field must have at least one column");
+		this.fields = fields.clone();
+	}
+
+	/**
+	 * Build the index key of the given tuple.
+	 *
+	 * @param t
+	 *            the tuple to extract the key from
+	 * @param keyFields
+	 *            the indices of the key columns
+	 * @return the field itself for a single key column, or a CompositeField
+	 *         over all the key columns otherwise
+	 */
+	public static Field keyOf(Tuple t, int[] keyFields) {
+		if (keyFields.length == 1)
+			return t.getField(keyFields[0]);
+		Field[] values = new Field[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++)
+			values[i] = t.getField(keyFields[i]);
+		return new CompositeField(values);
+	}
+
+	/**
+	 * @return the number of columns in this key
+	 */
+	public int numFields() {
+		return fields.length;
+	}
+
+	/**
+	 * @return the value of the i-th column of this key
+	 */
+	public Field getField(int i) {
+		return fields[i];
+	}
+
+	/**
+	 * @return a CompositeField made of the first n columns of this key
+	 */
+	public CompositeField prefix(int n) {
+		return new CompositeField(Arrays.copyOf(fields, n));
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(fields[i]);
+		}
+		return sb.append(")").toString();
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(fields);
+	}
+
+	public boolean equals(Object field) {
+		if (!(field instanceof CompositeField))
+			return false;
+		return Arrays.equals(fields, ((CompositeField) field).fields);
+	}
+
+	/**
+	 * Write the columns of this key one after the other, each in its own
+	 * fixed-width format.
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		for (Field f : fields)
+			f.serialize(dos);
+	}
+
+	/**
+	 * Compare the specified field to the value of this Field. A field that is
+	 * not a CompositeField is treated as a one column key.
+	 *
+	 * @see Field#compare
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		int cmp = compareTo(val);
+
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			return cmp == 0;
+		case NOT_EQUALS:
+			return cmp != 0;
+		case GREATER_THAN:
+			return cmp > 0;
+		case GREATER_THAN_OR_EQ:
+			return cmp >= 0;
+		case LESS_THAN:
+			return cmp < 0;
+		case LESS_THAN_OR_EQ:
+			return cmp <= 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Lexicographic comparison over the leading columns shared by both keys.
+	 */
+	private int compareTo(Field val) {
+		Field[] other = (val instanceof CompositeField) ? ((CompositeField) val).fields : new Field[] { val };
+		int n = Math.min(fields.length, other.length);
+		for (int i = 0; i < n; i++) {
+			if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+				return -1;
+			if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+				return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Return the Type of the leading column of this key.
+	 */
+	public Type getType() {
+		return fields[0].getType();
+	}
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CompressedPageFile stores the pages of a compressed HeapFile. Each page is
+ * compressed with {@link PageCompressor} when it is written, so a page only
+ * takes as many bytes on disk as its contents compress to.
+ * <p>
+ * The file starts with an 8 byte header, a marker and the page size, followed
+ * by a sequence of blocks. Each block holds one version of a page:
+ * <ul>
+ * <li> a 4 byte page number
+ * <li> a 4 byte length of the stored data
+ * <li> a 1 byte method, 1 if the data is compressed and 0 if it is the raw
+ *      page because it did not compress
+ * <li> the stored data
+ * </ul>
+ * Writing a page always appends a new block; the last block of a page is the
+ * current version. Blocks are never overwritten, so a crash while writing a
+ * page leaves the previous version intact, and a torn block at the end of the
+ * file is dropped. The offset of the
+ * current block of every page is kept in memory, built by reading the block
+ * headers when the file is first used.
+ * <p>
+ * Rewriting pages leaves the old blocks behind, so compressed files suit
+ * cold tables that are rarely written. {@link #compress(File, File)} converts
+ * an uncompressed heap file, such as one written by HeapFileEncoder.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, HeapFile.PageFormat, boolean)
+ */
+public class CompressedPageFile {
+
+    /** The marker at the start of every compressed heap file */
+    public static final int FILE_MARKER = 0x53445a31; // "SDZ1"
+
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 9;
+
+    private final File file;
+    private final DbFileChannel channel;
+
+    private boolean loaded = false;
+    private long end;
+    private int numPages = 0;
+    // offset of the current block of each page, or 0 if the page has none
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+
+    /**
+     * Create a compressed page store on the file read and written through
+     * the given channel.
+     */
+    public CompressedPageFile(File file, DbFileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Read the block headers to find the current block of every page, the
+     * first time the file is used.
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        long length = file.length();
+        end = FILE_HEADER_SIZE;
+        if (length >= FILE_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            channel.readFully(0, header.array());
+            if (header.getInt(0) != FILE_MARKER)
+                throw new IOException(file + " is not a compressed heap file");
+            if (header.getInt(4) != BufferPool.getPageSize())
+                throw new IOException(file + " has pages of " + header.getInt(4) + " bytes");
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            while (end + BLOCK_HEADER_SIZE <= length) {
+                channel.readFully(end, block.array());
+                int pageNo = block.getInt(0);
+                int len = block.getInt(4);
+                if (pageNo < 0 || len < 0 || len > BufferPool.getPageSize()
+                        || end + BLOCK_HEADER_SIZE + len > length)
+                    break;
+                setBlock(pageNo, end, len);
+                end += BLOCK_HEADER_SIZE + len;
+            }
+            // drop a torn block at the end of the file, so that its bytes are
+            // not taken for blocks once the next block is written over it
+            if (end < length)
+                channel.truncate(end);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(FILE_MARKER).putInt(BufferPool.getPageSize());
+            channel.write(0, header.array());
+        }
+        loaded = true;
+    }
+
+    private void setBlock(int pageNo, long offset, int len) {
+        if (pageNo >= offsets.length) {
+            int capacity = Math.max(pageNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        offsets[pageNo] = offset;
+        lengths[pageNo] = len;
+        numPages = Math.max(numPages, pageNo + 1);
+    }
+
+    /**
+     * @return the number of pages, one more than the highest page written
+     */
+    public synchronized int numPages() throws IOException {
+        load();
+        return numPages;
+    }
+
+    /**
+     * Read a page. A page that was never written reads as zeroes.
+     *
+     * @param pageNo the page number
+     * @param data the array of BufferPool.getPageSize() bytes to read into
+     * @throws IOException if the file cannot be read or the page is corrupt
+     */
+    public void read(int pageNo, byte[] data) throws IOException {
+        long offset;
+        int len;
+        synchronized (this) {
+            load();
+            offset = pageNo < numPages ? offsets[pageNo] : 0;
+            len = pageNo < numPages ? lengths[pageNo] : 0;
+        }
+        if (offset == 0) {
+            Arrays.fill(data, (byte) 0);
+            return;
+        }
+        // blocks are never overwritten, so the block can be read unlocked
+        byte[] block = new byte[BLOCK_HEADER_SIZE + len];
+        channel.readFully(offset, block);
+        if (block[BLOCK_HEADER_SIZE - 1] == 0) {
+            System.arraycopy(block, BLOCK_HEADER_SIZE, data, 0, len);
+            Arrays.fill(data, len, data.length, (byte) 0);
+            return;
+        }
+        byte[] stored = Arrays.copyOfRange(block, BLOCK_HEADER_SIZE, block.length);
+        int n = PageCompressor.decompress(stored, len, data);
+        if (n != data.length)
+            throw new IOException("page " + pageNo + " of " + file + " decompressed to " + n + " bytes");
+    }
+
+    /**
+     * Write a page, appending a new block for it to the file.
+     *
+     * @param pageNo the page number
+     * @param data the BufferPool.getPageSize() bytes of the page
+     * @throws IOException if the file cannot be written
+     */
+    public void write(int pageNo, byte[] data) throws IOException {
+        byte[] block = new byte[BLOCK_HEADER_SIZE + data.length];
+        byte[] compressed = new byte[data.length - 1];
+        int len = PageCompressor.compress(data, data.length, compressed);
+        if (len >= 0) {
+            System.arraycopy(compressed, 0, block, BLOCK_HEADER_SIZE, len);
+            block[BLOCK_HEADER_SIZE - 1] = 1;
+        } else {
+            len = data.length;
+            System.arraycopy(data, 0, block, BLOCK_HEADER_SIZE, len);
+        }
+        ByteBuffer.wrap(block).putInt(0, pageNo).putInt(4, len);
+        block = Arrays.copyOf(block, BLOCK_HEADER_SIZE + len);
+
+        synchronized (this) {
+            load();
+            channel.write(end, block);
+            setBlock(pageNo, end, len);
+            end += block.length;
+        }
+    }
+
+    /**
+     * Write a compressed copy of an uncompressed heap file.
+     *
+     * @param in the heap file to compress, whose pages are uncompressed
+     * @param out the compressed heap file to write, replaced if it exists
+     */
+    public static void compress(File in, File out) throws IOException {
+        if (out.exists() && !out.delete())
+            throw new IOException("cannot replace " + out);
+        DbFileChannel src = new DbFileChannel(in);
+        DbFileChannel dst = new DbFileChannel(out);
+        try {
+            CompressedPageFile pages = new CompressedPageFile(out, dst);
+            byte[] data = new byte[BufferPool.getPageSize()];
+            long n = in.length() / data.length;
+            for (int i = 0; i < n; i++) {
+                src.readFully((long) i * data.length, data);
+                pages.write(i, data);
+            }
+        } finally {
+            src.close();
+            dst.close();
+        }
+    }
+}
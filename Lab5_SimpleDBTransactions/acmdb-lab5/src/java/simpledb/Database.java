@@ -75,6 +75,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        DbFileChannel.closeAll();
         _instance.set(new Database());
     }
 
@@ -28,6 +28,11 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Returns the number of pages in this file, as read by a scan of it.
+     */
+    public int numPages();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -43,6 +48,22 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts the specified tuples to the file on behalf of transaction, as
+     * insertTuple does for each of them. Implementations fill a page before
+     * moving on to the next one, without looking for a free page again for
+     * every tuple.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @return An ArrayList contain the pages that were modified, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
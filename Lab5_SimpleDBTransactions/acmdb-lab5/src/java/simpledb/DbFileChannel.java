@@ -0,0 +1,308 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DbFileChannel is the long-lived handle a DbFile uses to read and write the
+ * pages of its backing file. The file is opened once, on first use, and all
+ * accesses are positional reads and writes on its FileChannel, so no file
+ * descriptor is opened per page and concurrent readers do not share a file
+ * pointer. Data is moved through a pool of direct buffers shared by all
+ * channels.
+ * <p>
+ * A channel can be switched to memory-mapped mode, for read-mostly files
+ * that fit in the OS page cache. Reads then copy the page straight out of a
+ * read-only mapping of the file, without a system call, and the file is
+ * mapped again when a read goes past the end of the current mapping because
+ * the file has grown. Writes always go through the channel, which the
+ * mapping sees since both share the OS page cache.
+ * <p>
+ * The number of pages read and the time spent reading them are counted for
+ * all channels together, see {@link #getPageReads()} and
+ * {@link #getPageReadNanos()}.
+ *
+ * @see HeapFile
+ * @see BTreeFile
+ */
+public class DbFileChannel {
+
+    private static final Set<DbFileChannel> openChannels = ConcurrentHashMap.newKeySet();
+    private static final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private static final AtomicLong pageReads = new AtomicLong();
+    private static final AtomicLong pageReadNanos = new AtomicLong();
+
+    private final File file;
+    private volatile RandomAccessFile raf = null;
+    private volatile FileChannel channel = null;
+
+    private volatile boolean memoryMapped = false;
+    private volatile MappedByteBuffer mapping = null;
+
+    /**
+     * Create a channel on the specified file. The file is not opened until
+     * it is first read or written.
+     *
+     * @param f the file of the DbFile
+     */
+    public DbFileChannel(File f) {
+        this.file = f;
+    }
+
+    /**
+     * @return the open channel of the file, opening the file if it was never
+     *         opened or has been closed
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            return fc;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                if (raf != null)
+                    raf.close();
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+                openChannels.add(this);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Switch memory-mapped reads on or off.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped)
+            mapping = null;
+    }
+
+    /**
+     * @return whether reads go through a mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return a mapping of the whole file that covers the given offset if
+     *         the file is long enough, remapping the file if it has grown,
+     *         or null if the file is too large to be mapped at once
+     */
+    private MappedByteBuffer mapping(long end) throws IOException {
+        MappedByteBuffer m = mapping;
+        if (m != null && m.capacity() >= end)
+            return m;
+        synchronized (this) {
+            if (mapping == null || mapping.capacity() < end) {
+                FileChannel fc = channel();
+                long size = fc.size();
+                if (size > Integer.MAX_VALUE)
+                    return null;
+                if (mapping == null || mapping.capacity() < size)
+                    mapping = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapping;
+        }
+    }
+
+    /**
+     * Copy data.length bytes at the given offset out of the mapping of the file
+     *
+     * @return the number of bytes read, or -1 if the file cannot be mapped
+     */
+    private int readMapped(long position, byte[] data) throws IOException {
+        MappedByteBuffer m = mapping(position + data.length);
+        if (m == null)
+            return -1;
+        if (position >= m.capacity())
+            return 0;
+        // the mapping is shared by all readers, each reads through its own view
+        ByteBuffer view = m.duplicate();
+        view.position((int) position);
+        int len = Math.min(data.length, view.remaining());
+        view.get(data, 0, len);
+        return len;
+    }
+
+    private static ByteBuffer getBuffer(int len) {
+        ByteBuffer buf = buffers.poll();
+        // pages may have grown since the buffer was pooled
+        if (buf == null || buf.capacity() < len)
+            buf = ByteBuffer.allocateDirect(Math.max(len, BufferPool.getPageSize()));
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    private static void releaseBuffer(ByteBuffer buf) {
+        buffers.offer(buf);
+    }
+
+    /**
+     * Read data.length bytes starting at the given offset of the file, or as
+     * many as the file holds. The bytes past the end of the file are left
+     * unchanged in data.
+     *
+     * @param position the offset in the file of the first byte to read
+     * @param data the array to read into
+     * @return the number of bytes read, which is less than data.length only
+     *         if the end of the file was reached
+     * @throws IOException if the file cannot be read
+     */
+    public int read(long position, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        if (memoryMapped) {
+            int len = readMapped(position, data);
+            if (len >= 0) {
+                pageReads.incrementAndGet();
+                pageReadNanos.addAndGet(System.nanoTime() - start);
+                return len;
+            }
+        }
+        ByteBuffer buf = getBuffer(data.length);
+        try {
+            while (true) {
+                try {
+                    FileChannel fc = channel();
+                    buf.clear();
+                    buf.limit(data.length);
+                    while (buf.hasRemaining()) {
+                        if (fc.read(buf, position + buf.position()) < 0)
+                            break;
+                    }
+                    break;
+                } catch (ClosedChannelException e) {
+                    // closed by another thread, reopen unless we were interrupted
+                    if (Thread.currentThread().isInterrupted())
+                        throw e;
+                }
+            }
+            buf.flip();
+            int len = buf.remaining();
+            buf.get(data, 0, len);
+            return len;
+        } finally {
+            releaseBuffer(buf);
+            pageReads.incrementAndGet();
+            pageReadNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Read exactly data.length bytes starting at the given offset of the file.
+     *
+     * @throws EOFException if the file ends before data.length bytes are read
+     * @throws IOException if the file cannot be read
+     * @see #read(long, byte[])
+     */
+    public void readFully(long position, byte[] data) throws IOException {
+        if (read(position, data) < data.length)
+            throw new EOFException("read past end of " + file);
+    }
+
+    /**
+     * Write data at the given offset of the file, extending the file if needed.
+     *
+     * @param position the offset in the file of the first byte to write
+     * @param data the bytes to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(long position, byte[] data) throws IOException {
+        ByteBuffer buf = getBuffer(data.length);
+        try {
+            while (true) {
+                try {
+                    FileChannel fc = channel();
+                    buf.clear();
+                    buf.put(data);
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        fc.write(buf, position + buf.position());
+                    return;
+                } catch (ClosedChannelException e) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw e;
+                }
+            }
+        } finally {
+            releaseBuffer(buf);
+        }
+    }
+
+    /**
+     * Write data at the end of the file.
+     *
+     * @param data the bytes to write
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void append(byte[] data) throws IOException {
+        write(file.length(), data);
+    }
+
+    /**
+     * Cut the file to the given length.
+     *
+     * @param size the new length of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void truncate(long size) throws IOException {
+        channel().truncate(size);
+        mapping = null;
+    }
+
+    /**
+     * Close the file. It is opened again if the channel is used afterwards.
+     */
+    public synchronized void close() {
+        openChannels.remove(this);
+        try {
+            if (raf != null)
+                raf.close();
+        } catch (IOException e) {
+            // Ignore failures closing the file
+        }
+        raf = null;
+        channel = null;
+        mapping = null;
+    }
+
+    /**
+     * Close the files of all open channels, used when the database is reset.
+     */
+    public static void closeAll() {
+        for (DbFileChannel c : openChannels)
+            c.close();
+    }
+
+    /**
+     * @return the number of reads done through all channels
+     */
+    public static long getPageReads() {
+        return pageReads.get();
+    }
+
+    /**
+     * @return the total time spent in reads through all channels, in nanoseconds
+     */
+    public static long getPageReadNanos() {
+        return pageReadNanos.get();
+    }
+
+    /**
+     * Reset the read counters
+     */
+    public static void resetStats() {
+        pageReads.set(0);
+        pageReadNanos.set(0);
+    }
+}
@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one bucket (or one
+ * overflow page of a bucket) of a HashFile and implements the Page interface
+ * that is used by BufferPool.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashBucketPage implements Page {
+	private final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final int numSlots;
+	private final byte header[];
+	private final Tuple tuples[];
+
+	private int localDepth;
+	private int overflow;
+
+	private byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is an integer for the local depth of the
+	 * bucket, an integer for the page number of the next overflow page (0 if
+	 * none), then the same layout as a HeapPage: a set of header bytes
+	 * indicating the slots of the page that are in use and the tuple slots.
+	 * The number of tuples is equal to: <p>
+	 *          floor(((BufferPool.getPageSize() - 2 * 4) * 8) / (tuple size * 8 + 1))
+	 *
+	 * @see HeapPage#HeapPage
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples();
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		localDepth = dis.readInt();
+		overflow = dis.readInt();
+
+		header = new byte[getHeaderSize()];
+		for (int i = 0; i < header.length; i++)
+			header[i] = dis.readByte();
+
+		tuples = new Tuple[numSlots];
+		try {
+			for (int i = 0; i < tuples.length; i++)
+				tuples[i] = readNextTuple(dis, i);
+		} catch (NoSuchElementException e) {
+			e.printStackTrace();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Retrieve the maximum number of tuples this page can hold.
+	 */
+	public int getMaxTuples() {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		return ((BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8) / bitsPerTupleIncludingHeader;
+	}
+
+	/**
+	 * Computes the number of bytes in the header of this page
+	 */
+	private int getHeaderSize() {
+		return (numSlots + 7) / 8;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashBucketPage getBeforeImage() {
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashBucketPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * Suck up tuples from the source file.
+	 */
+	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, read forward to the next tuple, and
+		// return null.
+		if (!isSlotUsed(slotId)) {
+			for (int i = 0; i < td.getSize(); i++) {
+				try {
+					dis.readByte();
+				} catch (IOException e) {
+					throw new NoSuchElementException("error reading empty tuple");
+				}
+			}
+			return null;
+		}
+
+		// read fields in the tuple
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		try {
+			for (int j = 0; j < td.numFields(); j++) {
+				Field f = td.getFieldType(j).parse(dis);
+				t.setField(j, f);
+			}
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+
+		return t;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte array
+	 * generated by getPageData to the HashBucketPage constructor and have it
+	 * produce an identical HashBucketPage object.
+	 *
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		try {
+			dos.writeInt(localDepth);
+			dos.writeInt(overflow);
+			dos.write(header);
+
+			for (int i = 0; i < tuples.length; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(new byte[td.getSize()]);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++)
+					tuples[i].getField(j).serialize(dos);
+			}
+
+			// padding
+			int zerolen = len - (2 * INDEX_SIZE + header.length + td.getSize() * tuples.length);
+			dos.write(new byte[zerolen]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashBucketPage of local depth 0 with no overflow page.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		int len = BufferPool.getPageSize();
+		return new byte[len]; //all 0
+	}
+
+	/**
+	 * @return the number of hash bits shared by all the keys of this bucket
+	 */
+	public int getLocalDepth() {
+		return localDepth;
+	}
+
+	/**
+	 * Set the number of hash bits shared by all the keys of this bucket
+	 */
+	public void setLocalDepth(int localDepth) {
+		this.localDepth = localDepth;
+	}
+
+	/**
+	 * @return the id of the next overflow page of this bucket, or null if none
+	 */
+	public HashPageId getOverflowId() {
+		if (overflow == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), overflow);
+	}
+
+	/**
+	 * Set the id of the next overflow page of this bucket
+	 * @param id - the id of the overflow page, or null if none
+	 * @throws DbException if the id is invalid
+	 */
+	public void setOverflowId(HashPageId id) throws DbException {
+		if (id == null) {
+			overflow = 0;
+		}
+		else {
+			if (id.getTableId() != pid.getTableId())
+				throw new DbException("table id mismatch in setOverflowId");
+			if (id.isDirectory())
+				throw new DbException("an overflow page must be a bucket page");
+			overflow = id.pageNumber();
+		}
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple should be updated to
+	 * reflect that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		if (!isSlotUsed(rid.tupleno()))
+			throw new DbException("tried to delete null tuple");
+		markSlotUsed(rid.tupleno(), false);
+		tuples[rid.tupleno()] = null;
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple should be updated to
+	 * reflect that it is now stored on this page.
+	 * @throws DbException if the page is full (no empty slots) or tupledesc
+	 *         is mismatch.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addTuple");
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				tuples[i] = t;
+				t.setRecordId(new RecordId(pid, i));
+				return;
+			}
+		}
+		throw new DbException("called addTuple on page with no empty slots.");
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (!isSlotUsed(i))
+				cnt++;
+		return cnt;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		int headerbit = i % 8;
+		int headerbyte = (i - headerbit) / 8;
+		return (header[headerbyte] & (1 << headerbit)) != 0;
+	}
+
+	/**
+	 * Abstraction to fill or clear a slot on this page.
+	 */
+	private void markSlotUsed(int i, boolean value) {
+		int headerbit = i % 8;
+		int headerbyte = (i - headerbit) / 8;
+		if (value)
+			header[headerbyte] |= 1 << headerbit;
+		else
+			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this
+	 * iterator throws an UnsupportedOperationException). The iterator works
+	 * on a copy of the slots, so tuples may be moved off the page while
+	 * iterating.
+	 */
+	public Iterator<Tuple> iterator() {
+		ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
+		for (int i = 0; i < numSlots; i++)
+			if (isSlotUsed(i))
+				tupleList.add(tuples[i]);
+		return Collections.unmodifiableList(tupleList).iterator();
+	}
+
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage stores the directory of an extendible hash file: for each
+ * of the 2^globalDepth possible values of the low bits of a key's hash it
+ * gives the page number of the bucket holding that key. Several entries share
+ * a bucket whose local depth is below the global depth. It implements the Page
+ * interface that is used by BufferPool.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashDirectoryPage implements Page {
+
+	private boolean dirty = false;
+	private TransactionId dirtier = null;
+
+	private final HashPageId pid;
+
+	private int globalDepth;
+	private int[] buckets;
+
+	private byte[] oldData;
+
+	/**
+	 * Constructor.
+	 * Construct the HashDirectoryPage from a set of bytes of data read from
+	 * disk.
+	 * The format of a HashDirectoryPage is an integer for the global depth,
+	 * followed by 2^globalDepth integers for the page numbers of the buckets.
+	 * A page of zero bytes is read as a directory with a single entry pointing
+	 * to page 1.
+	 */
+	public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		globalDepth = dis.readInt();
+		buckets = new int[1 << globalDepth];
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = dis.readInt();
+		if (globalDepth == 0 && buckets[0] == 0)
+			buckets[0] = 1;
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * There is only one directory page per table. This static method is
+	 * separate from getId() in order to maintain the Page interface
+	 * @param tableid - the tableid of this table
+	 * @return the directory page id for the given table
+	 */
+	public static HashPageId getId(int tableid) {
+		return new HashPageId(tableid, HashPageId.DIRECTORY_PGNO);
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this directory page.
+	 * Used to serialize this page to disk.
+	 *
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		try {
+			dos.writeInt(globalDepth);
+			for (int bucket : buckets)
+				dos.writeInt(bucket);
+			dos.write(new byte[len - 4 * (buckets.length + 1)]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashDirectoryPage, whose single entry points to page 1.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		int len = BufferPool.getPageSize();
+		return new byte[len]; //all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashDirectoryPage getBeforeImage() {
+		try {
+			return new HashDirectoryPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of low hash bits used to index the directory
+	 */
+	public int getGlobalDepth() {
+		return globalDepth;
+	}
+
+	/**
+	 * @return the largest global depth whose directory still fits on one page
+	 */
+	public static int getMaxGlobalDepth() {
+		int entries = BufferPool.getPageSize() / 4 - 1;
+		return 31 - Integer.numberOfLeadingZeros(entries);
+	}
+
+	/**
+	 * @return the number of entries of the directory
+	 */
+	public int getNumEntries() {
+		return buckets.length;
+	}
+
+	/**
+	 * @return the directory index of the given hash value
+	 */
+	public int indexOf(int hash) {
+		return hash & (buckets.length - 1);
+	}
+
+	/**
+	 * @param i - the directory index
+	 * @return the id of the bucket page the i-th entry points to
+	 */
+	public HashPageId getBucketId(int i) {
+		return new HashPageId(pid.getTableId(), buckets[i]);
+	}
+
+	/**
+	 * Point the i-th entry of the directory to a bucket page
+	 * @param i - the directory index
+	 * @param id - the id of the bucket page
+	 * @throws DbException if the id is invalid
+	 */
+	public void setBucketId(int i, HashPageId id) throws DbException {
+		if (id.getTableId() != pid.getTableId())
+			throw new DbException("table id mismatch in setBucketId");
+		if (id.isDirectory())
+			throw new DbException("a directory entry must point to a bucket page");
+		buckets[i] = id.pageNumber();
+	}
+
+	/**
+	 * Double the directory by adding one bit to the global depth. Each new
+	 * entry points to the same bucket as the entry it was copied from.
+	 * @throws DbException if the directory would no longer fit on its page
+	 */
+	public void doubleDirectory() throws DbException {
+		if (globalDepth >= getMaxGlobalDepth())
+			throw new DbException("hash directory is full");
+		int[] doubled = new int[buckets.length * 2];
+		System.arraycopy(buckets, 0, doubled, 0, buckets.length);
+		System.arraycopy(buckets, 0, doubled, buckets.length, buckets.length);
+		buckets = doubled;
+		globalDepth++;
+	}
+
+}
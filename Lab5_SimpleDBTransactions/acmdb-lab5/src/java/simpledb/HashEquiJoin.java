@@ -1,27 +1,80 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements the relational join operation with a
+ * hybrid hash join. The right (inner) relation is read into a hash table on
+ * the join field when the operator is opened; the left (outer) relation is
+ * then read one tuple at a time, and each tuple is joined with the inner
+ * tuples found by a lookup of its join field. Joined tuples are returned as
+ * they are produced.
+ * <p>
+ * The hash table is limited to a memory budget. When the inner relation
+ * does not fit, both relations are split by a hash of the join field into
+ * {@link #SPILL_PARTITIONS} partitions. The first partition stays in memory
+ * and is joined while the outer relation is read; the other partitions are
+ * written to {@link SpillFile}s, and each pair of spilled partitions is
+ * joined afterwards by another HashEquiJoin, which splits them again if they
+ * still do not fit. Partitions that cannot be split further because their
+ * tuples share a few join values are joined with a block nested loops Join.
  */
 public class HashEquiJoin extends Operator {
 
+    /** The default memory budget of the hash table, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /** The number of partitions the relations are split into when they spill */
+    public static final int SPILL_PARTITIONS = 16;
+
+    // partitions are joined with a nested loops join below this many levels
+    // of splitting
+    private static final int MAX_LEVELS = 3;
+
     private JoinPredicate jp;
     private DbIterator child1;
     private DbIterator child2;
     private TupleDesc joinedtd;
-    private ArrayList<Tuple> joinedtp;
+    private final long memoryBudget;
+    private final int level;
     private HashMap<Field, ArrayList<Tuple>> map;
+    private int inMemory;
+    // the outer tuple being joined, and the inner tuples it has left to join
+    private transient Tuple outer = null;
+    private transient Iterator<Tuple> matches = null;
+
+    // the spilled partitions of each relation, null until the inner relation
+    // overflows the memory budget
+    private transient SpillFile[] innerSpills = null;
+    private transient SpillFile[] outerSpills = null;
+    // whether the first partition was spilled too
+    private boolean firstSpilled;
+    // whether the outer relation has been read to the end, and its spilled
+    // partitions are complete
+    private boolean outerDone;
+    private boolean outerPartitioned;
+    // the join of the spilled partition being joined
+    private transient DbIterator partitionJoin = null;
+    private int nextPartition;
+
+    // the tuples this join spilled, and the partitions joined and the tuples
+    // spilled by the partition joins since the last open or rewind
+    private long spilledTuples = 0;
+    private long spilledBytes = 0;
+    private int spilledPartitions = 0;
+    private long nestedTuples = 0;
+    private long nestedBytes = 0;
 
     private static final long serialVersionUID = 1L;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
-     *            The predicate to use to join the children
+     *            The predicate to use to join the children, whose operator
+     *            must be EQUALS
      * @param child1
      *            Iterator for the left(outer) relation to join
      * @param child2
@@ -29,11 +82,36 @@ public class HashEquiJoin extends Operator {
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor with the memory budget of the hash table.
+     *
+     * @param p
+     *            The predicate to use to join the children, whose operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBudget
+     *            The number of bytes of inner tuples the hash table may
+     *            hold, counting each tuple as its TupleDesc size
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBudget) {
+        this(p, child1, child2, memoryBudget, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBudget, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashEquiJoin only joins on EQUALS, not " + p.getOperator());
         this.jp = p;
         this.child1 = child1;
         this.child2 = child2;
         this.joinedtd = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
-        this.joinedtp = new ArrayList<>();
+        this.memoryBudget = memoryBudget;
+        this.level = level;
         this.map = new HashMap<>();
     }
 
@@ -46,7 +124,7 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         return this.joinedtd;
     }
-    
+
     public String getJoinField1Name()
     {
         // some code goes here
@@ -58,57 +136,206 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         return this.child2.getTupleDesc().getFieldName(this.jp.getField2());
     }
-    
+
+    /**
+     * @return the number of spilled partitions joined since the join was
+     *         opened or rewound, including the partitions they were split
+     *         into
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of tuples in the spill files of this join, and
+     *         written by the partition joins since it was opened or rewound
+     */
+    public long getSpilledTuples() {
+        return spilledTuples + nestedTuples;
+    }
+
+    /**
+     * @return the number of bytes in the spill files of this join, and
+     *         written by the partition joins since it was opened or rewound
+     */
+    public long getSpilledBytes() {
+        return spilledBytes + nestedBytes;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         super.open();
         child1.open();
         child2.open();
-        int len1 = child1.getTupleDesc().numFields();
-        int len2 = child2.getTupleDesc().numFields();
+        resetSpillCounts();
+        spilledTuples = 0;
+        spilledBytes = 0;
+        long memoryTuples = Math.max(1, memoryBudget / child2.getTupleDesc().getSize());
         while (child2.hasNext()) {
             Tuple tp = child2.next();
             Field f = tp.getField(jp.getField2());
-            if (!map.containsKey(f)) map.put(f, new ArrayList<>());
-            map.get(f).add(tp);
-        }
-        while (child1.hasNext()) {
-            Tuple tp1 = child1.next();
-            Field f1 = tp1.getField(jp.getField1());
-            for (Field f : map.keySet()) {
-                if (f1.compare(jp.getOperator(), f)) {
-                    for (Tuple tp2 : map.get(f)) {
-                        Tuple joined = new Tuple(this.joinedtd);
-                        for (int i = 0; i < len1; ++i) 
-                            joined.setField(i, tp1.getField(i));
-                        for (int i = 0; i < len2; ++i) 
-                            joined.setField(len1 + i, tp2.getField(i));
-                            this.joinedtp.add(joined);
-                    }
+            if (isSpilled(f)) {
+                spill(innerSpills, tp, f);
+                continue;
+            }
+            ArrayList<Tuple> bucket = map.get(f);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                map.put(f, bucket);
+            }
+            bucket.add(tp);
+            if (++inMemory > memoryTuples) {
+                if (innerSpills == null) {
+                    innerSpills = new SpillFile[SPILL_PARTITIONS];
+                    outerSpills = new SpillFile[SPILL_PARTITIONS];
+                    spillTable(false);
+                }
+                if (inMemory > memoryTuples) {
+                    spillTable(true);
+                    firstSpilled = true;
                 }
             }
         }
-        this.listIt = joinedtp.iterator();
+        this.outer = null;
+        this.matches = null;
+        this.outerDone = false;
+        this.nextPartition = 0;
+    }
+
+    /**
+     * @return the partition of a value of the join field
+     */
+    private int partition(Field f) {
+        int h = f.hashCode() + level * 0x9e3779b9;
+        h *= 0x85ebca6b;
+        h ^= h >>> 16;
+        return Math.floorMod(h, SPILL_PARTITIONS);
+    }
+
+    /**
+     * @return whether tuples with this value of the join field are in a
+     *         spilled partition
+     */
+    private boolean isSpilled(Field f) {
+        return innerSpills != null && (firstSpilled || partition(f) != 0);
+    }
+
+    private void spill(SpillFile[] spills, Tuple t, Field f) throws DbException {
+        int p = partition(f);
+        try {
+            if (spills[p] == null)
+                spills[p] = new SpillFile(t.getTupleDesc());
+            spills[p].add(t);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        spilledTuples++;
+        spilledBytes += t.getTupleDesc().getSize();
+    }
+
+    /**
+     * Moves the tuples of the hash table to their spill files, either all of
+     * them or only the ones that are not in the first partition
+     */
+    private void spillTable(boolean all) throws DbException {
+        Iterator<Map.Entry<Field, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Field, ArrayList<Tuple>> e = it.next();
+            if (!all && partition(e.getKey()) == 0)
+                continue;
+            for (Tuple t : e.getValue())
+                spill(innerSpills, t, e.getKey());
+            inMemory -= e.getValue().size();
+            it.remove();
+        }
+    }
+
+    private void deleteSpills() {
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        if (innerSpills != null) {
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                if (innerSpills[i] != null) innerSpills[i].delete();
+                if (outerSpills[i] != null) outerSpills[i].delete();
+            }
+        }
+        innerSpills = null;
+        outerSpills = null;
+        firstSpilled = false;
+        outerPartitioned = false;
     }
 
     public void close() {
         // some code goes here
         this.map.clear();
-        this.joinedtp.clear();
-        this.listIt = null;
+        this.inMemory = 0;
+        this.outer = null;
+        this.matches = null;
+        deleteSpills();
         this.child2.close();
         this.child1.close();
         super.close();
     }
 
+    private void resetSpillCounts() {
+        spilledPartitions = 0;
+        nestedTuples = 0;
+        nestedBytes = 0;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.close();
-        this.open();
+        // the hash table and the spilled inner partitions stay as they are
+        if (innerSpills != null && !outerPartitioned) {
+            // the outer relation was not read to the end, so its partitions
+            // are incomplete, and the tuples already in them would be written
+            // again: start them over
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                if (outerSpills[i] == null) continue;
+                spilledTuples -= outerSpills[i].size();
+                spilledBytes -= outerSpills[i].bytes();
+                outerSpills[i].delete();
+                outerSpills[i] = null;
+            }
+        }
+        resetSpillCounts();
+        child1.rewind();
+        this.outer = null;
+        this.matches = null;
+        this.outerDone = false;
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        this.nextPartition = 0;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * Returns the join of a pair of spilled partitions: a HashEquiJoin that
+     * splits them further, or a nested loops Join once the partitions have
+     * been split MAX_LEVELS times.
+     */
+    private DbIterator joinPartition(int p) {
+        DbIterator outerIt = outerSpills[p].iterator();
+        DbIterator innerIt = innerSpills[p].iterator();
+        if (level + 1 < MAX_LEVELS)
+            return new HashEquiJoin(jp, outerIt, innerIt, memoryBudget, level + 1);
+        return new Join(jp, outerIt, innerIt);
+    }
+
+    private Tuple mergeTuples(Tuple tp1, Tuple tp2) {
+        int len1 = child1.getTupleDesc().numFields();
+        int len2 = child2.getTupleDesc().numFields();
+        Tuple joined = new Tuple(this.joinedtd);
+        for (int i = 0; i < len1; ++i)
+            joined.setField(i, tp1.getField(i));
+        for (int i = 0; i < len2; ++i)
+            joined.setField(len1 + i, tp2.getField(i));
+        return joined;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -124,14 +351,58 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.listIt.hasNext()) return listIt.next();
-        else return null;
+        while (!outerDone) {
+            if (matches != null && matches.hasNext())
+                return mergeTuples(outer, matches.next());
+            if (!child1.hasNext()) {
+                outerDone = true;
+                // after a rewind the outer partitions are already written
+                outerPartitioned = innerSpills != null;
+                break;
+            }
+            outer = child1.next();
+            Field f = outer.getField(jp.getField1());
+            matches = null;
+            if (isSpilled(f)) {
+                // outer tuples of a partition without inner tuples never join
+                if (!outerPartitioned && innerSpills[partition(f)] != null)
+                    spill(outerSpills, outer, f);
+                continue;
+            }
+            ArrayList<Tuple> bucket = map.get(f);
+            if (bucket != null)
+                matches = bucket.iterator();
+        }
+
+        while (innerSpills != null) {
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext())
+                    return partitionJoin.next();
+                partitionJoin.close();
+                if (partitionJoin instanceof HashEquiJoin) {
+                    HashEquiJoin j = (HashEquiJoin) partitionJoin;
+                    spilledPartitions += j.getSpilledPartitions();
+                    nestedTuples += j.getSpilledTuples();
+                    nestedBytes += j.getSpilledBytes();
+                }
+                partitionJoin = null;
+            }
+            if (nextPartition >= SPILL_PARTITIONS)
+                return null;
+            int p = nextPartition++;
+            if (innerSpills[p] == null || outerSpills[p] == null)
+                continue;
+            spilledPartitions++;
+            partitionJoin = joinPartition(p);
+            partitionJoin.open();
+        }
+        return null;
     }
 
     @Override
@@ -149,5 +420,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
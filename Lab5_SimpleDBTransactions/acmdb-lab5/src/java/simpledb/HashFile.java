@@ -0,0 +1,559 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores a collection of tuples
+ * in an extendible hash table on one of their fields. Page 0 of the file is a
+ * HashDirectoryPage mapping the low bits of the hash of a key to a
+ * HashBucketPage; the remaining pages are buckets and their overflow pages.
+ * <p>
+ * The directory of a file in use stays in the buffer pool, so an equality
+ * lookup usually costs a single bucket read. A full bucket is split by adding
+ * one bit to its local depth, doubling the directory when needed. Buckets whose
+ * keys cannot be separated by their hash (duplicate keys, or a directory that
+ * no longer fits on its page) grow a chain of overflow pages instead. Buckets
+ * are never merged.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ * @see SecondaryHashFile
+ */
+public class HashFile implements DbFile {
+
+	private final File f;
+	private final DbFileChannel channel;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	/**
+	 * Constructs a hash file backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this hash
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.channel = new DbFileChannel(f);
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile. Implementation note:
+	 * you will need to generate this tableid somewhere and ensure that each
+	 * HashFile has a "unique id," and that you always return the same value for
+	 * a particular HashFile. The implementation we suggest you use could hash
+	 * the absolute file name of the file underlying the HashFile, i.e.
+	 * f.getAbsoluteFile().hashCode().
+	 *
+	 * @return an ID uniquely identifying this HashFile.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 *
+	 * @return TupleDesc of this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this hash file is keyed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, including the directory page
+	 */
+	public int numPages() {
+		// we only ever write full pages
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+
+		try {
+			byte pageBuf[] = new byte[BufferPool.getPageSize()];
+			channel.readFully((long) id.pageNumber() * BufferPool.getPageSize(), pageBuf);
+			Debug.log(1, "HashFile.readPage: read page %d", id.pageNumber());
+			if (id.isDirectory())
+				return new HashDirectoryPage(id, pageBuf);
+			return new HashBucketPage(id, pageBuf);
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Read past end of table");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		byte[] data = page.getPageData();
+		channel.write((long) page.getId().pageNumber() * BufferPool.getPageSize(), data);
+	}
+
+	/**
+	 * The hash of a key. The bits of the key's own hashCode are mixed so that
+	 * the low bits used by the directory depend on the whole key.
+	 *
+	 * @param key - the key to hash
+	 * @return the hash of the key
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Method to encapsulate the process of locking/fetching a page.  First the method checks the local
+	 * cache ("dirtypages"), and if it can't find the requested page there, it fetches it from the buffer pool.
+	 * It also adds pages to the dirtypages cache if they are fetched with read-write permission, since
+	 * presumably they will soon be dirtied by this transaction.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param pid - the id of the requested page
+	 * @param perm - the requested permissions on the page
+	 * @return the requested page
+	 */
+	Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		if (dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		}
+		else {
+			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+			if (perm == Permissions.READ_WRITE) {
+				dirtypages.put(pid, p);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Get the directory page of this file, creating the directory and the first
+	 * bucket if the file is empty.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param perm - the requested permissions on the directory
+	 * @return the directory page
+	 */
+	HashDirectoryPage getDirectoryPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		synchronized (this) {
+			if (f.length() == 0) {
+				// create the directory page and the first bucket
+				channel.append(HashDirectoryPage.createEmptyPageData());
+				channel.append(HashBucketPage.createEmptyPageData());
+			}
+		}
+		return (HashDirectoryPage) getPage(tid, dirtypages, HashDirectoryPage.getId(tableid), perm);
+	}
+
+	/**
+	 * Insert a tuple into the bucket of its key. The directory is only locked
+	 * for writing when the bucket is full and has to be split. Otherwise its
+	 * shared lock is only held while the bucket is looked up, since the write
+	 * lock on the bucket keeps it from being split until commit.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		insertTuple(tid, dirtypages, t);
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	/**
+	 * Insert tuples into the buckets of their keys. The pages locked for
+	 * writing for one tuple are kept in the local cache for the next ones.
+	 *
+	 * @param tid - the transaction id
+	 * @param tuples - the tuples to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		for (Tuple t : tuples)
+			insertTuple(tid, dirtypages, t);
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	private void insertTuple(TransactionId tid, HashMap<PageId, Page> dirtypages, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!td.equals(t.getTupleDesc()))
+			throw new DbException("TupleDesc doesn't match");
+		int hash = hash(t.getField(keyField));
+
+		// the pages locked by this insert that the transaction did not hold
+		// before; nothing is written to them until a page with room is found
+		ArrayList<PageId> locked = new ArrayList<PageId>();
+		HashPageId dirId = HashDirectoryPage.getId(tableid);
+		if (!isLocked(tid, dirtypages, dirId))
+			locked.add(dirId);
+		HashDirectoryPage dir = getDirectoryPage(tid, dirtypages, Permissions.READ_ONLY);
+		HashPageId pid = dir.getBucketId(dir.indexOf(hash));
+		while (pid != null) {
+			if (!isLocked(tid, dirtypages, pid))
+				locked.add(pid);
+			HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() > 0) {
+				page.insertTuple(t);
+				if (locked.contains(dirId))
+					Database.getBufferPool().releasePage(tid, dirId);
+				return;
+			}
+			pid = page.getOverflowId();
+		}
+
+		// the bucket is full and has to be split, which needs the directory
+		// for writing. Upgrading the shared lock would deadlock two
+		// transactions splitting at once, so release the pages locked above,
+		// none of which has been written, and lock the directory for writing
+		// before any bucket
+		for (PageId unused : locked) {
+			dirtypages.remove(unused);
+			Database.getBufferPool().releasePage(tid, unused);
+		}
+		dir = getDirectoryPage(tid, dirtypages, Permissions.READ_WRITE);
+		HashBucketPage bucket = (HashBucketPage) getPage(tid, dirtypages,
+				dir.getBucketId(dir.indexOf(hash)), Permissions.READ_WRITE);
+		HashBucketPage page = findPageWithEmptySlots(tid, dirtypages, bucket);
+		while (page == null) {
+			if (splitBucket(tid, dirtypages, dir, bucket, hash)) {
+				bucket = (HashBucketPage) getPage(tid, dirtypages,
+						dir.getBucketId(dir.indexOf(hash)), Permissions.READ_WRITE);
+				page = findPageWithEmptySlots(tid, dirtypages, bucket);
+			}
+			else {
+				page = addOverflowPage(tid, dirtypages, bucket);
+			}
+		}
+		page.insertTuple(t);
+	}
+
+	/**
+	 * @return whether the transaction holds a lock on a page, either from
+	 * this operation or from an earlier one
+	 */
+	private boolean isLocked(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid) {
+		return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	/**
+	 * Find the first page of a bucket's chain with an empty slot.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param bucket - the first page of the bucket
+	 * @return a page of the chain with an empty slot, or null if all pages are full
+	 */
+	private HashBucketPage findPageWithEmptySlots(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			HashBucketPage bucket) throws DbException, TransactionAbortedException {
+		HashBucketPage page = bucket;
+		while (page.getNumEmptySlots() == 0) {
+			HashPageId next = page.getOverflowId();
+			if (next == null)
+				return null;
+			page = (HashBucketPage) getPage(tid, dirtypages, next, Permissions.READ_WRITE);
+		}
+		return page;
+	}
+
+	/**
+	 * Append an empty overflow page to the chain of a bucket.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param bucket - the first page of the bucket
+	 * @return the new overflow page
+	 */
+	private HashBucketPage addOverflowPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			HashBucketPage bucket) throws DbException, IOException, TransactionAbortedException {
+		HashBucketPage last = bucket;
+		while (last.getOverflowId() != null)
+			last = (HashBucketPage) getPage(tid, dirtypages, last.getOverflowId(), Permissions.READ_WRITE);
+		HashBucketPage page = getEmptyPage(tid, dirtypages);
+		page.setLocalDepth(bucket.getLocalDepth());
+		last.setOverflowId(page.getId());
+		return page;
+	}
+
+	/**
+	 * Split a full bucket by adding one bit to its local depth, doubling the
+	 * directory if the bucket already uses every bit of it. The tuples whose
+	 * hash has the new bit set move to a new bucket, and the directory entries
+	 * with that bit set are pointed to it.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param dir - the directory page, locked for writing
+	 * @param bucket - the first page of the full bucket
+	 * @param hash - the hash of the key being inserted
+	 * @return false if splitting cannot make room for the key, either because
+	 *         every tuple of the bucket has the same hash as the key or because
+	 *         the directory cannot grow any more
+	 */
+	private boolean splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, HashDirectoryPage dir,
+			HashBucketPage bucket, int hash) throws DbException, IOException, TransactionAbortedException {
+		ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+		boolean separable = false;
+		for (HashBucketPage p = bucket; p != null; ) {
+			chain.add(p);
+			Iterator<Tuple> it = p.iterator();
+			while (!separable && it.hasNext())
+				separable = hash(it.next().getField(keyField)) != hash;
+			p = p.getOverflowId() == null ? null
+					: (HashBucketPage) getPage(tid, dirtypages, p.getOverflowId(), Permissions.READ_WRITE);
+		}
+		if (!separable)
+			return false;
+
+		int depth = bucket.getLocalDepth();
+		if (depth == dir.getGlobalDepth()) {
+			if (depth >= HashDirectoryPage.getMaxGlobalDepth())
+				return false;
+			dir.doubleDirectory();
+		}
+
+		HashBucketPage newBucket = getEmptyPage(tid, dirtypages);
+		newBucket.setLocalDepth(depth + 1);
+		for (int i = 0; i < dir.getNumEntries(); i++) {
+			if (dir.getBucketId(i).equals(bucket.getId()) && ((i >>> depth) & 1) == 1)
+				dir.setBucketId(i, newBucket.getId());
+		}
+
+		for (HashBucketPage p : chain) {
+			p.setLocalDepth(depth + 1);
+			Iterator<Tuple> it = p.iterator();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (((hash(t.getField(keyField)) >>> depth) & 1) == 1) {
+					p.deleteTuple(t);
+					HashBucketPage target = findPageWithEmptySlots(tid, dirtypages, newBucket);
+					if (target == null)
+						target = addOverflowPage(tid, dirtypages, newBucket);
+					target.insertTuple(t);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Append a new empty bucket page to the end of the file and lock it for
+	 * writing.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @return the new empty page
+	 */
+	private HashBucketPage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		HashPageId newPageId;
+		synchronized (this) {
+			newPageId = new HashPageId(tableid, numPages());
+			// write empty page to disk
+			channel.write((long) newPageId.pageNumber() * BufferPool.getPageSize(),
+					HashBucketPage.createEmptyPageData());
+		}
+
+		// make sure the page is not in the buffer pool	or in the local cache
+		Database.getBufferPool().discardPage(newPageId);
+		dirtypages.remove(newPageId);
+
+		return (HashBucketPage) getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Delete a tuple from this HashFile. Buckets are left in place even when
+	 * they become empty.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid)
+			throw new DbException("tried to delete tuple with invalid record id");
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages,
+				(HashPageId) rid.getPageId(), Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	/**
+	 * Get the specified tuples from the file based on its IndexPredicate value
+	 * on behalf of the specified transaction. An EQUALS predicate only reads the
+	 * bucket of its key; since hashing does not preserve the order of keys, any
+	 * other predicate is answered by a filtered scan of the whole file. This
+	 * method will acquire a read lock on the affected pages of the file, and may
+	 * block until the lock can be acquired.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this hash file, in no particular order.
+	 * This method will acquire a read lock on the affected pages of the file,
+	 * and may block until the lock can be acquired.
+	 *
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a HashFile,
+ * either over every bucket page or over the chain of the bucket of one key
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	HashBucketPage curp = null;
+
+	TransactionId tid;
+	HashFile f;
+	IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the HashFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on, or null to return every tuple
+	 */
+	public HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	private boolean isProbe() {
+		return ipred != null && ipred.getOp() == Predicate.Op.EQUALS;
+	}
+
+	/**
+	 * Open this iterator by reading the directory, which also keeps buckets
+	 * from being split while the iterator is in use
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		curp = null;
+		it = null;
+		if (f.numPages() == 0)
+			return;
+		HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(
+				tid, HashDirectoryPage.getId(f.getId()), Permissions.READ_ONLY);
+		HashPageId first = isProbe()
+				? dir.getBucketId(dir.indexOf(HashFile.hash(ipred.getField())))
+				: new HashPageId(f.getId(), HashPageId.DIRECTORY_PGNO + 1);
+		curp = (HashBucketPage) Database.getBufferPool().getPage(tid, first, Permissions.READ_ONLY);
+		it = curp.iterator();
+	}
+
+	/**
+	 * Read the next matching tuple from the current page, moving on to the next
+	 * page of the bucket chain (or of the file) when it is exhausted.
+	 *
+	 * @return the next tuple, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (curp != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (ipred == null || t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField()))
+					return t;
+			}
+
+			HashPageId nextp;
+			if (isProbe())
+				nextp = curp.getOverflowId();
+			else if (curp.getId().pageNumber() + 1 < f.numPages())
+				nextp = new HashPageId(f.getId(), curp.getId().pageNumber() + 1);
+			else
+				nextp = null;
+
+			if (nextp == null) {
+				curp = null;
+			}
+			else {
+				curp = (HashBucketPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				it = curp.iterator();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+	}
+}
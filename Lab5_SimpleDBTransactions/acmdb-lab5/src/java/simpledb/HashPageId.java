@@ -0,0 +1,89 @@
+package simpledb;
+
+/** Unique identifier for HashDirectoryPage and HashBucketPage objects.
+ *  Page 0 of a HashFile is always its directory page, every other page is a
+ *  bucket page.
+ */
+public class HashPageId implements PageId {
+
+	public final static int DIRECTORY_PGNO = 0;
+
+	private final int tableId;
+	private final int pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific table.
+	 *
+	 * @param tableId The table that is being referenced
+	 * @param pgNo The page number in that table.
+	 */
+	public HashPageId(int tableId, int pgNo) {
+		this.tableId = tableId;
+		this.pgNo = pgNo;
+	}
+
+	/** @return the table associated with this PageId */
+	public int getTableId() {
+		return tableId;
+	}
+
+	/**
+	 * @return the page number in the table getTableId() associated with
+	 *   this PageId
+	 */
+	public int pageNumber() {
+		return pgNo;
+	}
+
+	/**
+	 * @return true if this is the id of the directory page of the table
+	 */
+	public boolean isDirectory() {
+		return pgNo == DIRECTORY_PGNO;
+	}
+
+	/**
+	 * @return a hash code for this page, represented by the concatenation of
+	 *   the table number and the page number (needed if a PageId is used as a
+	 *   key in a hash table in the BufferPool, for example.)
+	 * @see BufferPool
+	 */
+	public int hashCode() {
+		return (tableId << 16) + pgNo;
+	}
+
+	/**
+	 * Compares one PageId to another.
+	 *
+	 * @param o The object to compare against (must be a PageId)
+	 * @return true if the objects are equal (e.g., page numbers and table
+	 *   ids are the same)
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof HashPageId))
+			return false;
+		HashPageId p = (HashPageId) o;
+		return tableId == p.tableId && pgNo == p.pgNo;
+	}
+
+	public String toString() {
+		return "(tableId: " + tableId + ", pgNo: " + pgNo + ")";
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.  Size of returned array must contain
+	 *  number of integers that corresponds to number of args to one of the
+	 *  constructors.
+	 */
+	public int[] serialize() {
+		int data[] = new int[2];
+
+		data[0] = tableId;
+		data[1] = pgNo;
+
+		return data;
+	}
+
+}
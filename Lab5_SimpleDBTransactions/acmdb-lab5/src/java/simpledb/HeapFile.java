@@ -16,10 +16,38 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The formats of the pages of a heap file
+     */
+    public enum PageFormat {
+        /** fixed-width records, see HeapPage */
+        FIXED,
+        /** variable-length records, see SlottedHeapPage */
+        SLOTTED,
+        /** fixed-width records stored column by column, see PaxPage */
+        PAX
+    }
+
     private File file;
     private TupleDesc td;
+    private final DbFileChannel channel;
+    private final PageFormat format;
+    // the store of the pages of a compressed file, null if not compressed
+    private final CompressedPageFile compressedPages;
     // private ConcurrentHashMap<PageId, Page> PageIdToPage;
 
+    // free-space map: the pages that may have an empty slot, built from the
+    // page headers on disk on the first insert
+    private BitSet freePages = null;
+    // the page each running transaction last inserted into, and the pages
+    // its inserts filled up
+    private final HashMap<TransactionId, Integer> insertPages = new HashMap<>();
+    private final HashMap<TransactionId, ArrayList<Integer>> filledPages = new HashMap<>();
+
+    // min/max summaries of the pages, loaded on the first insert or
+    // predicate scan
+    private ZoneMap zoneMap = null;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -28,9 +56,33 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the given format, and stored either as they are or compressed. The
+     * format of a file cannot be changed once it has pages. Compressed files
+     * take less disk space and less I/O to scan, at the cost of decompressing
+     * pages when they are read and of growing when pages are rewritten; they
+     * are meant for cold tables.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the pages
+     * @param compressed
+     *            whether the pages are stored compressed
+     * @see CompressedPageFile
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, boolean compressed) {
         // some code goes here
         this.file = f;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.format = format;
+        this.compressedPages = compressed ? new CompressedPageFile(f, channel) : null;
         // this.PageIdToPage = new ConcurrentHashMap<>();
     }
 
@@ -44,6 +96,30 @@ public class HeapFile implements DbFile {
         return this.file;
     }
 
+    /**
+     * @return the format of the pages of this file
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * @return whether the pages of this file are stored compressed
+     */
+    public boolean isCompressed() {
+        return compressedPages != null;
+    }
+
+    /**
+     * Switch memory-mapped reads of this file on or off. Meant for read-mostly
+     * tables that fit in the OS page cache; writes are not affected.
+     * 
+     * @see DbFileChannel#setMemoryMapped(boolean)
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        channel.setMemoryMapped(memoryMapped);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -73,17 +149,21 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         try {
-            FileInputStream fis = new FileInputStream(this.file);
+            // a page past the end of the file reads as an empty page
             byte[] data = new byte[BufferPool.getPageSize()];
-            fis.skip(pid.pageNumber() * BufferPool.getPageSize());
-            fis.read(data);
-            fis.close();
+            if (compressedPages != null)
+                compressedPages.read(pid.pageNumber(), data);
+            else
+                channel.read((long) pid.pageNumber() * BufferPool.getPageSize(), data);
 
-            Page page = new HeapPage((HeapPageId) pid, data);
-            return page;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
+            switch (format) {
+            case SLOTTED:
+                return new SlottedHeapPage((HeapPageId) pid, data);
+            case PAX:
+                return new PaxPage((HeapPageId) pid, data);
+            default:
+                return new HeapPage((HeapPageId) pid, data);
+            }
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -97,10 +177,9 @@ public class HeapFile implements DbFile {
         try {
             HeapPageId id = (HeapPageId) page.getId();
             byte[] data = page.getPageData();
-            RandomAccessFile rf = new RandomAccessFile(this.file, "rw");
-            rf.seek(id.pageNumber() * BufferPool.getPageSize()); // Not Sure
-            rf.write(data);
-            rf.close();
+            writePageData(id.pageNumber(), data);
+            ZoneMap zm = this.zoneMap;
+            if (zm != null) zm.setPage(id.pageNumber(), (HeapPage) page);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -112,33 +191,207 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
+        if (compressedPages != null) {
+            try {
+                return compressedPages.numPages();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return (int) Math.ceil(this.file.length() / BufferPool.getPageSize());
     }
 
-    // see DbFile.java for javadocs
+    private void writePageData(int pageNo, byte[] data) throws IOException {
+        if (compressedPages != null)
+            compressedPages.write(pageNo, data);
+        else
+            channel.write((long) pageNo * BufferPool.getPageSize(), data);
+    }
+
+    /**
+     * Inserts a tuple into a page with an empty slot, as found in the
+     * free-space map, so that full pages are not locked. If no page has room,
+     * an empty page is appended to the file and the tuple is inserted there
+     * through the buffer pool like into any other page.
+     * 
+     * @see DbFile#insertTuple(TransactionId, Tuple)
+     */
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
         if (!this.td.equals(t.getTupleDesc())) throw new DbException("TupleDesc doesn't match");
         ArrayList<Page> modifiedPages = new ArrayList<>();
-        for (int i = 0; i < numPages(); ++i) {
-            PageId pid = new HeapPageId(getId(), i);
-            HeapPage tmpPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            try {
-                tmpPage.insertTuple(t);
-                modifiedPages.add(tmpPage);
-                return modifiedPages;
+        ZoneMap zm = getZoneMap();
+        HeapPage page = getPageWithRoomFor(tid, t);
+        page.insertTuple(t);
+        zm.addTuple(page.getId().pageNumber(), t);
+        tupleInserted(tid, page.getId().pageNumber(), page.getNumEmptySlots() == 0);
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    /**
+     * Inserts tuples as insertTuple does, filling each page found in the
+     * free-space map before looking for the next one.
+     * 
+     * @see DbFile#insertTuples(TransactionId, Iterable)
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<>();
+        ZoneMap zm = getZoneMap();
+        HeapPage page = null;
+        for (Tuple t : tuples) {
+            if (!this.td.equals(t.getTupleDesc())) throw new DbException("TupleDesc doesn't match");
+            if (page == null || !page.hasRoomFor(t)) {
+                if (page != null) tupleInserted(tid, page.getId().pageNumber(), page.getNumEmptySlots() == 0);
+                page = getPageWithRoomFor(tid, t);
+                if (!modifiedPages.contains(page)) modifiedPages.add(page);
             }
-            catch (DbException ignored) {}
+            page.insertTuple(t);
+            zm.addTuple(page.getId().pageNumber(), t);
         }
-        HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
-        newPage.insertTuple(t);
-        modifiedPages.add(newPage);
-        writePage(newPage);
+        if (page != null) tupleInserted(tid, page.getId().pageNumber(), page.getNumEmptySlots() == 0);
         return modifiedPages;
     }
 
+    /**
+     * Returns a page with room for the tuple, locked with read-write
+     * permission. If the free-space map is out of date and a page turns out
+     * to be full, the page is dropped from the map and another one is tried.
+     * A page of a slotted file that has room for smaller tuples stays in the
+     * map but is skipped. If no page has room, an empty page is appended to
+     * the file.
+     */
+    private HeapPage getPageWithRoomFor(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BitSet skipped = null;
+        int pageNo = nextFreePage(tid, skipped);
+        while (true) {
+            if (pageNo < 0) pageNo = appendEmptyPage();
+            PageId pid = new HeapPageId(getId(), pageNo);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) return page;
+            if (page.getNumEmptySlots() == 0) {
+                synchronized (this) {
+                    freePages.clear(pageNo);
+                }
+            } else {
+                if (skipped == null) skipped = new BitSet();
+                skipped.set(pageNo);
+            }
+            pageNo = nextFreePage(tid, skipped);
+        }
+    }
+
+    /**
+     * Returns a page that may have an empty slot. The page a transaction last
+     * inserted into is tried first; otherwise transactions start looking at
+     * different places in the file, so that concurrent inserters are spread
+     * over the free pages instead of all waiting for the first one.
+     * 
+     * @param skipped the pages not to return, or null
+     * @return the page number, or -1 if no page has an empty slot
+     */
+    private synchronized int nextFreePage(TransactionId tid, BitSet skipped) {
+        loadFreePages();
+        BitSet candidates = freePages;
+        if (skipped != null) {
+            candidates = (BitSet) freePages.clone();
+            candidates.andNot(skipped);
+        }
+        Integer last = insertPages.get(tid);
+        if (last != null && candidates.get(last)) return last;
+        if (candidates.isEmpty()) return -1;
+        int start = (int) (tid.getId() % candidates.length());
+        int pageNo = candidates.nextSetBit(start);
+        return pageNo >= 0 ? pageNo : candidates.nextSetBit(0);
+    }
+
+    /**
+     * Builds the free-space map from the pages on disk if it has not been
+     * built yet. The pages are read directly, without locking them; pages
+     * whose changes in the buffer pool are not on disk yet are corrected when
+     * inserts find them full.
+     */
+    private synchronized void loadFreePages() {
+        if (freePages != null) return;
+        freePages = new BitSet();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), i));
+            if (page.getNumEmptySlots() > 0) freePages.set(i);
+        }
+    }
+
+    /**
+     * Returns the zone map of the file, reading it from disk or building it
+     * from the pages on disk the first time. It is loaded before the first
+     * insert, so no page in the buffer pool has tuples it does not cover.
+     */
+    private synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            ZoneMap zm = new ZoneMap(new File(file.getPath() + ".zm"), td);
+            int pages = numPages();
+            if (!zm.read(file, pages)) {
+                for (int i = 0; i < pages; i++)
+                    zm.setPage(i, (HeapPage) readPage(new HeapPageId(getId(), i)));
+            }
+            zoneMap = zm;
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Called by the BufferPool after a transaction that locked pages of this
+     * file commits, once its pages are on disk.
+     */
+    void writeZoneMap() throws IOException {
+        ZoneMap zm = this.zoneMap;
+        if (zm != null) zm.write();
+    }
+
+    /**
+     * Appends an empty page to the file
+     * 
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pageNo = numPages();
+        writePageData(pageNo, HeapPage.createEmptyPageData());
+        freePages.set(pageNo);
+        return pageNo;
+    }
+
+    private synchronized void tupleInserted(TransactionId tid, int pageNo, boolean full) {
+        insertPages.put(tid, pageNo);
+        if (full) {
+            freePages.clear(pageNo);
+            ArrayList<Integer> filled = filledPages.get(tid);
+            if (filled == null) {
+                filled = new ArrayList<>();
+                filledPages.put(tid, filled);
+            }
+            filled.add(pageNo);
+        }
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that locked pages of this
+     * file completes. The pages filled up by an aborted transaction have
+     * their empty slots back.
+     * 
+     * @param tid the transaction id
+     * @param commit whether the transaction commits or aborts
+     */
+    synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        insertPages.remove(tid);
+        ArrayList<Integer> filled = filledPages.remove(tid);
+        if (!commit && filled != null) {
+            for (int pageNo : filled) freePages.set(pageNo);
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -150,27 +403,227 @@ public class HeapFile implements DbFile {
         HeapPage tPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         tPage.deleteTuple(t);
         modifiedPages.add(tPage);
+        synchronized (this) {
+            if (freePages != null) freePages.set(pid.pageNumber());
+        }
         return modifiedPages;
     }
 
+    /**
+     * Compacts the file after mass deletes: moves the tuples on the pages at
+     * the end of the file into empty slots of earlier pages, and truncates
+     * the pages left empty, so that scans stop reading them. The vacuum runs
+     * online, as a series of short transactions, each of which empties at
+     * most batchPages pages from the end of the file, taking read-write locks
+     * on them and on the pages their tuples move to like any other writer.
+     * If one of them is aborted, for instance to break a deadlock with
+     * another transaction, the vacuum stops, and the file is left compacted
+     * as far as it got; it can be run again later.
+     * <p>
+     * Moved tuples get new RecordIds. The entries of the
+     * {@link SecondaryHashFile}s over this file registered in the catalog are
+     * moved with them, in the same transaction. Compressed files are
+     * compacted but not truncated, since their pages are not stored in page
+     * order.
+     * 
+     * @param batchPages the number of pages each transaction empties
+     * @return the number of pages the file shrank by
+     */
+    public int vacuum(int batchPages) throws DbException, IOException {
+        if (batchPages < 1) throw new IllegalArgumentException("batchPages must be positive");
+        int before = numPages();
+        // the pages from end on have been emptied, and the pages from touched
+        // on are out of the free-space map
+        int end = before;
+        int touched = before;
+        boolean done = false;
+        ArrayList<SecondaryHashFile> indexes = getSecondaryIndexes();
+        while (!done && end > 0) {
+            Transaction t = new Transaction();
+            t.start();
+            int batchEnd = end;
+            try {
+                for (int i = 0; i < batchPages && end > 0; i++) {
+                    touched = end - 1;
+                    if (!emptyPage(t.getId(), end - 1, indexes)) {
+                        done = true;
+                        break;
+                    }
+                    end--;
+                }
+                t.commit();
+            } catch (TransactionAbortedException e) {
+                t.abort();
+                end = batchEnd;
+                done = true;
+            } catch (DbException e) {
+                t.abort();
+                throw e;
+            } catch (IOException e) {
+                t.abort();
+                throw e;
+            }
+        }
+        truncateEmptyPages(end, touched);
+        return before - numPages();
+    }
+
+    /**
+     * @return the secondary hash indexes over this file in the catalog
+     */
+    private ArrayList<SecondaryHashFile> getSecondaryIndexes() {
+        ArrayList<SecondaryHashFile> indexes = new ArrayList<>();
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> ids = catalog.tableIdIterator();
+        while (ids.hasNext()) {
+            DbFile file = catalog.getDatabaseFile(ids.next());
+            if (file instanceof SecondaryHashFile && ((SecondaryHashFile) file).getTableId() == getId())
+                indexes.add((SecondaryHashFile) file);
+        }
+        return indexes;
+    }
+
+    /**
+     * Moves the tuples on a page to empty slots of the pages before it,
+     * together with their entries in the given indexes, and takes the page
+     * out of the free-space map, so that inserts do not fill it again.
+     * 
+     * @return false if the pages before it have no room for all its tuples
+     */
+    private boolean emptyPage(TransactionId tid, int pageNo, ArrayList<SecondaryHashFile> indexes)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage src = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), pageNo), Permissions.READ_WRITE);
+        synchronized (this) {
+            loadFreePages();
+            freePages.clear(pageNo);
+        }
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = src.iterator();
+        while (it.hasNext()) tuples.add(it.next());
+
+        ZoneMap zm = getZoneMap();
+        HeapPage dest = null;
+        int destNo = -1;
+        for (Tuple t : tuples) {
+            if (dest == null || !dest.hasRoomFor(t)) {
+                dest = getPageWithRoomBefore(tid, t, destNo + 1, pageNo);
+                if (dest == null) return false;
+                destNo = dest.getId().pageNumber();
+            }
+            for (SecondaryHashFile index : indexes)
+                index.deleteEntry(tid, t);
+            src.deleteTuple(t);
+            src.markDirty(true, tid);
+            dest.insertTuple(t);
+            dest.markDirty(true, tid);
+            for (SecondaryHashFile index : indexes)
+                index.insertEntry(tid, t);
+            zm.addTuple(destNo, t);
+            tupleInserted(tid, destNo, dest.getNumEmptySlots() == 0);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first page in the free-space map between from and limit
+     * that has room for the tuple, locked with read-write permission.
+     * 
+     * @return the page, or null if there is none
+     */
+    private HeapPage getPageWithRoomBefore(TransactionId tid, Tuple t, int from, int limit)
+            throws DbException, TransactionAbortedException {
+        int pageNo = from;
+        while (true) {
+            synchronized (this) {
+                pageNo = freePages.nextSetBit(pageNo);
+            }
+            if (pageNo < 0 || pageNo >= limit) return null;
+            PageId pid = new HeapPageId(getId(), pageNo);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) return page;
+            if (page.getNumEmptySlots() == 0) {
+                synchronized (this) {
+                    freePages.clear(pageNo);
+                }
+            }
+            pageNo++;
+        }
+    }
+
+    /**
+     * Truncates the empty pages at the end of the file, from page end on.
+     * The pages are locked with read-write permission by a transaction of
+     * their own, so that no running transaction is using them. The pages
+     * from touched on that are not truncated are put back in the free-space
+     * map.
+     */
+    private void truncateEmptyPages(int end, int touched) throws DbException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        Transaction t = new Transaction();
+        t.start();
+        int n = numPages();
+        int newPages = n;
+        boolean aborted = false;
+        try {
+            for (int i = n - 1; i >= end; i--) {
+                HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(getId(), i), Permissions.READ_WRITE);
+                if (page.iterator().hasNext()) break;
+                newPages = i;
+            }
+        } catch (TransactionAbortedException e) {
+            newPages = n;
+            aborted = true;
+        }
+        boolean truncated = false;
+        synchronized (this) {
+            // pages appended since are after the empty ones
+            if (compressedPages == null && newPages < n && numPages() == n) {
+                channel.truncate((long) newPages * BufferPool.getPageSize());
+                if (zoneMap != null) zoneMap.truncate(newPages);
+                if (freePages != null) freePages.clear(newPages, n);
+                truncated = true;
+            }
+            if (freePages != null) {
+                for (int i = touched; i < numPages(); i++) freePages.set(i);
+            }
+        }
+        if (truncated) {
+            for (int i = newPages; i < n; i++) bp.discardPage(new HeapPageId(getId(), i));
+        }
+        if (aborted) t.abort();
+        else t.commit();
+    }
+
     /**
      * An auxiliary class that implements the Java Iterator for tuples on a page
      */
     public class HeapFileIterator implements DbFileIterator {
         private Iterator<Tuple> tupleIterator;
         private TransactionId tid;
-        private PageId curPid;
+        private final Collection<Predicate> predicates;
+        private int pageNo;
         private boolean isOpen;
 
         public HeapFileIterator(TransactionId tid) {
+            this(tid, Collections.<Predicate>emptyList());
+        }
+
+        /**
+         * Create an iterator that skips the pages whose zone map shows that
+         * they hold no tuple satisfying one of the predicates. The tuples of
+         * the other pages are all returned.
+         */
+        public HeapFileIterator(TransactionId tid, Collection<Predicate> predicates) {
             this.tid = tid;
+            this.predicates = predicates;
             this.isOpen = false;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.curPid = new HeapPageId(getId(), 0);
-            this.tupleIterator = ((HeapPage) Database.getBufferPool().getPage(tid, curPid, Permissions.READ_ONLY)).iterator();
+            this.pageNo = -1;
+            this.tupleIterator = null;
             this.isOpen = true;
         }
 
@@ -179,16 +632,16 @@ public class HeapFile implements DbFile {
             if (!this.isOpen) {
                 return false;
             }
-            if (this.tupleIterator.hasNext()) {
-                return true;
+            while (this.tupleIterator == null || !this.tupleIterator.hasNext()) {
+                int nextPageNo = nextPage(this.pageNo + 1, this.predicates);
+                if (nextPageNo >= numPages()) {
+                    return false;
+                }
+                this.pageNo = nextPageNo;
+                PageId pid = new HeapPageId(getId(), this.pageNo);
+                this.tupleIterator = ((HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)).iterator();
             }
-            if (this.curPid.pageNumber() + 1 >= numPages()) {
-                return false;
-            }
-            int nextPageNo = this.curPid.pageNumber() + 1;
-            PageId nextPid = new HeapPageId(getId(), nextPageNo);
-            Iterator<Tuple> nextTupleIterator = ((HeapPage) Database.getBufferPool().getPage(tid, nextPid, Permissions.READ_ONLY)).iterator();
-            return nextTupleIterator.hasNext();
+            return true;
         }
 
         @Override
@@ -196,9 +649,6 @@ public class HeapFile implements DbFile {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            if (this.tupleIterator.hasNext()) return this.tupleIterator.next();
-            this.curPid = new HeapPageId(getId(), this.curPid.pageNumber() + 1);
-            this.tupleIterator = ((HeapPage) Database.getBufferPool().getPage(tid, curPid, Permissions.READ_ONLY)).iterator();
             return this.tupleIterator.next();
         }
 
@@ -214,10 +664,47 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Returns the first page from the given one that may hold tuples
+     * satisfying all the predicates, according to the zone map.
+     * 
+     * @return the page number, or numPages() if there is none
+     */
+    int nextPage(int pageNo, Collection<Predicate> predicates) {
+        if (predicates.isEmpty()) return pageNo;
+        ZoneMap zm = getZoneMap();
+        int n = numPages();
+        for (; pageNo < n; pageNo++) {
+            boolean match = true;
+            for (Predicate p : predicates) {
+                if (!zm.mightMatch(pageNo, p)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) break;
+        }
+        return pageNo;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(tid);
     }
+
+    /**
+     * Returns an iterator over the tuples of the file that skips the pages
+     * whose zone map shows that no tuple on them satisfies all the
+     * predicates. Tuples on the pages read are returned whether they satisfy
+     * the predicates or not.
+     * 
+     * @param tid the transaction the scan is running as a part of
+     * @param predicates predicates on the columns of the file
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, Collection<Predicate> predicates) {
+        return new HeapFileIterator(tid, predicates);
+    }
 }
 
@@ -18,12 +18,15 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    // the data the page was read from; the tuples are decoded from it when
+    // they are first read
+    private final byte[] data;
 
     protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    volatile byte[] oldData;
+    final Byte oldDataLock=new Byte((byte)0);
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -37,6 +40,10 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The tuples are not decoded here: a tuple is only created when it is
+     * first read, and its fields when they are first read, see
+     * {@link #getTuple(int)}.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -45,26 +52,34 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < BufferPool.getPageSize())
+            throw new EOFException("page data too short");
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Create an empty HeapPage with the given number of slots, for page
+     * formats that read their data themselves.
+     *
+     * @see SlottedHeapPage
+     */
+    HeapPage(HeapPageId id, int numSlots) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots;
+        this.data = null;
+        this.header = new byte[getHeaderSize()];
+        this.tuples = new Tuple[numSlots];
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -100,6 +115,14 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return the data of this page as of the last call to setBeforeImage,
+     *         for the before images of subclasses
+     */
+    protected byte[] getOldData() {
+        return oldData;
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -117,37 +140,10 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the record in slot i
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
+    private int getRecordOffset(int i) {
+        return header.length + i * td.getSize();
     }
 
     /**
@@ -192,6 +188,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never read, copy its record
+            if (tuples[i] == null && data != null) {
+                try {
+                    dos.write(data, getRecordOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -312,6 +318,13 @@ public class HeapPage implements Page {
         return count;
     }
 
+    /**
+     * Returns true if the specified tuple can be added to this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -325,10 +338,45 @@ public class HeapPage implements Page {
         return (header[headerIndex] & (1 << bitIndex)) != 0;
     }
 
+    /**
+     * @return the tuple stored in slot i of this page, or null if the slot is empty
+     */
+    Tuple getTuple(int i) {
+        return isSlotUsed(i) ? readTuple(i) : null;
+    }
+
+    /**
+     * @return the tuple in slot i, creating it from the page data if it has
+     *         not been read yet. Its fields are decoded as they are read.
+     */
+    private Tuple readTuple(int i) {
+        Tuple t = this.tuples[i];
+        if (t == null) {
+            t = createTuple(i);
+            // concurrent readers may both create it, either copy is fine
+            this.tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Create the tuple in slot i from the page data, for page formats that
+     * do not decode their tuples when the page is read.
+     *
+     * @return the tuple, or null if the page has no data to create it from
+     */
+    Tuple createTuple(int i) {
+        if (this.data == null)
+            return null;
+        Tuple t = new Tuple(td, this.data, getRecordOffset(i));
+        t.setRecordId(new RecordId(this.pid, i));
+        return t;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(int i, boolean value) {
         // some code goes here
         int headerIndex = i / 8;
         int bitIndex = i % 8;
@@ -342,13 +390,28 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> tupleList = new ArrayList<>();
-        for (int i = 0; i < this.numSlots; ++i) {
-            if (isSlotUsed(i)) {
-                tupleList.add(this.tuples[i]);
+        // iterate over the slots used now, tuples inserted later are not returned
+        final byte[] used = this.header.clone();
+        return new Iterator<Tuple>() {
+            private int next = nextUsed(0);
+
+            private int nextUsed(int i) {
+                while (i < numSlots && (used[i / 8] & (1 << (i % 8))) == 0)
+                    i++;
+                return i;
             }
-        }
-        return tupleList.iterator();
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Tuple t = readTuple(next);
+                next = nextUsed(next + 1);
+                return t;
+            }
+        };
     }
 
 }
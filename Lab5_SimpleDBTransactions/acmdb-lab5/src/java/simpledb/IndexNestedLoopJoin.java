@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer relation with a table stored in a
+ * BTreeFile keyed on the inner join field. Instead of scanning the inner
+ * table, it probes the B+ tree with an IndexPredicate for each outer join
+ * value, so only the leaf pages holding matching tuples are read.
+ * <p>
+ * The outer relation is read a block of tuples at a time, and each block is
+ * sorted on the join field before it is probed: outer tuples with the same
+ * value share a probe, and successive probes visit the leaves in key order,
+ * so the internal pages and leaves they share stay in the buffer pool.
+ * <p>
+ * The inner child is a scan of the indexed table, possibly under filters; the
+ * scan itself is never read, and the filter predicates are applied to the
+ * tuples returned by the probes.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate jp;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+    private final int blockSize;
+
+    private final TransactionId tid;
+    private final BTreeFile index;
+    // the predicates of the filters above the scan of the index
+    private final ArrayList<Predicate> filters = new ArrayList<Predicate>();
+    // the operator of the index predicate: the inner key compared with the
+    // outer value, so the join operator with its operands swapped
+    private final Predicate.Op indexOp;
+
+    // the current block of outer tuples, sorted on the join field; the
+    // outer tuples [groupStart, groupEnd) share the join value being probed
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private int groupStart;
+    private int groupEnd;
+    private transient DbFileIterator probe;
+    // the inner tuple being joined with the group, and the position in the
+    // group of the next outer tuple to join it with
+    private transient Tuple inner;
+    private int groupPos;
+    private int probes;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The inner relation: a scan of a table stored in a BTreeFile
+     *            keyed on the inner join field, possibly under Filters
+     * @throws IllegalArgumentException
+     *             if the inner relation cannot be probed, see
+     *             {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canProbe(p.getOperator(), child2, p.getField2()))
+            throw new IllegalArgumentException("cannot probe an index of " + child2
+                    + " on field " + p.getField2() + " with " + p.getOperator());
+        this.jp = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockSize = Join.blockSize(child1.getTupleDesc());
+
+        DbIterator plan = child2;
+        while (plan instanceof Filter) {
+            filters.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) plan;
+        this.tid = scan.getTransactionId();
+        this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        this.indexOp = swap(p.getOperator());
+    }
+
+    /**
+     * Returns true if an IndexNestedLoopJoin can join on the given operator
+     * with the given inner relation: a SeqScan, possibly under Filters, of a
+     * BTreeFile whose leading key field is the inner join field.
+     */
+    public static boolean canProbe(Predicate.Op op, DbIterator inner, int field) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return false;
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        if (!(inner instanceof SeqScan) || inner instanceof ColumnScan)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) inner).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return jp;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(jp.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(jp.getField2());
+    }
+
+    /**
+     * @return the number of times the index has been probed since the join
+     *         was opened
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        resetState();
+        probes = 0;
+        super.open();
+    }
+
+    private void resetState() {
+        closeProbe();
+        block.clear();
+        groupStart = 0;
+        groupEnd = 0;
+        inner = null;
+        groupPos = 0;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        resetState();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        resetState();
+    }
+
+    /**
+     * Reads the next block of outer tuples and sorts it on the join field.
+     *
+     * @return false if the outer relation has no more tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext())
+            block.add(child1.next());
+        Collections.sort(block, new TupleComparator(jp.getField1(), true));
+        groupStart = 0;
+        groupEnd = 0;
+        return !block.isEmpty();
+    }
+
+    /**
+     * Opens a probe of the index for the next group of outer tuples sharing a
+     * join value.
+     *
+     * @return false if the outer relation has no more tuples
+     */
+    private boolean nextGroup() throws DbException, TransactionAbortedException {
+        closeProbe();
+        if (groupEnd >= block.size() && !readBlock())
+            return false;
+        groupStart = groupEnd;
+        Field value = block.get(groupStart).getField(jp.getField1());
+        groupEnd = groupStart + 1;
+        while (groupEnd < block.size()
+                && block.get(groupEnd).getField(jp.getField1()).compare(Predicate.Op.EQUALS, value))
+            groupEnd++;
+        probe = index.indexIterator(tid, new IndexPredicate(indexOp, value));
+        probe.open();
+        probes++;
+        return true;
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate p : filters) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with Join, the tuples returned are the concatenation of
+     * joining tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            // the probe only returns inner tuples matching the group's value
+            if (inner != null && groupPos < groupEnd)
+                return mergeTuples(block.get(groupPos++), inner);
+            inner = null;
+            if (probe == null || !probe.hasNext()) {
+                if (!nextGroup())
+                    return null;
+                continue;
+            }
+            Tuple t = probe.next();
+            if (passesFilters(t)) {
+                inner = t;
+                groupPos = groupStart;
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple tp1, Tuple tp2) {
+        int len1 = child1.getTupleDesc().numFields();
+        int len2 = child2.getTupleDesc().numFields();
+        Tuple joined = new Tuple(td);
+        for (int i = 0; i < len1; ++i)
+            joined.setField(i, tp1.getField(i));
+        for (int i = 0; i < len2; ++i)
+            joined.setField(len1 + i, tp2.getField(i));
+        return joined;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -15,6 +15,12 @@ public class IndexPredicate implements Serializable {
 	
     /**
      * Constructor.
+     * <p>
+     * On an index keyed on several fields, fvalue may be a {@link CompositeField}
+     * over the leading k key fields: the first k-1 columns must then match
+     * exactly and op is applied to the k-th column, so that an equality prefix
+     * plus a range on the next column is answered by a single index seek. A
+     * plain Field is compared against the leading key field only.
      *
      * @param fvalue The value that the predicate compares against.
      * @param op The operation to apply (as defined in Predicate.Op); either
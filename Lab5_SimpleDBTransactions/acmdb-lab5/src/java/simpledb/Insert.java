@@ -14,6 +14,9 @@ public class Insert extends Operator {
     private int tableId;
     private int cnt;
     private TupleDesc td;
+
+    // number of tuples handed to the buffer pool at once
+    private static final int BATCH_SIZE = 512;
     
     private static final long serialVersionUID = 1L;
 
@@ -52,15 +55,19 @@ public class Insert extends Operator {
         super.open();
         child.open();
         this.cnt = 0;
+        ArrayList<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (child.hasNext()){
-            Tuple next = child.next();
-            try {
-                Database.getBufferPool().insertTuple(tid, tableId, next);
-                this.cnt++;
-            } 
-            catch (IOException e) {
-                e.printStackTrace();
-                System.exit(0);
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(tid, tableId, batch);
+                    this.cnt += batch.size();
+                } 
+                catch (IOException e) {
+                    e.printStackTrace();
+                    System.exit(0);
+                }
+                batch.clear();
             }
         }
     }
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntGroupTable numbers the distinct int keys it is given: the first key gets
+ * group 0, the next new key group 1, and so on, so that aggregators can keep
+ * the state of each group in arrays indexed by group. It is an open
+ * addressing hash table with linear probing over primitive arrays, so
+ * looking up a key neither boxes it nor allocates.
+ */
+class IntGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // the table is grown when it is more than half full
+    private static final int INITIAL_CAPACITY = 64;
+
+    // slots[i] is 1 + the group of keys[i], or 0 if the slot is empty
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int[] slots = new int[INITIAL_CAPACITY];
+    // the key of each group
+    private int[] groupKeys = new int[INITIAL_CAPACITY / 2];
+    private int size = 0;
+
+    /**
+     * @return the number of groups
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the key of the given group
+     */
+    public int key(int group) {
+        return groupKeys[group];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group of the key, or -1 if the key has not been seen
+     */
+    public int find(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return -1;
+            if (keys[i] == key)
+                return slot - 1;
+        }
+    }
+
+    /**
+     * Returns the group of the key, adding a new group numbered size() if the
+     * key has not been seen yet.
+     */
+    public int group(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                if (size == groupKeys.length)
+                    groupKeys = Arrays.copyOf(groupKeys, size * 2);
+                groupKeys[size] = key;
+                keys[i] = key;
+                slots[i] = ++size;
+                if (size * 2 > keys.length)
+                    grow();
+                return size - 1;
+            }
+            if (keys[i] == key)
+                return slot - 1;
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new int[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldSlots[j] == 0)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group is numbered, and the running aggregate of a group is kept in
+ * int arrays indexed by its number: the value (the minimum, the maximum or
+ * the sum) and the count of tuples. INT group-by values are numbered by an
+ * {@link IntGroupTable}, so merging a tuple into its group allocates
+ * nothing; other group-by fields are numbered by a HashMap.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -13,8 +19,14 @@ public class IntegerAggregator implements Aggregator {
     private int aField;
     private Op op;
 
-    private HashMap<Field, Integer> groupByMap;
-    private HashMap<Field, Integer> countMap;
+    // the groups of INT group-by values, or of other group-by values
+    private IntGroupTable intGroups;
+    private HashMap<Field, Integer> fieldGroups;
+    private ArrayList<Field> groupFields;
+    private int numGroups = 0;
+    // the running value and count of each group
+    private int[] values = new int[16];
+    private int[] counts = new int[16];
     private TupleDesc aTD;
 
     private static final long serialVersionUID = 1L;
@@ -40,8 +52,14 @@ public class IntegerAggregator implements Aggregator {
         this.gbFieldType = gbfieldtype;
         this.aField = afield;
         this.op = what;
-        this.groupByMap = new HashMap<>();
-        this.countMap = new HashMap<>();
+        if (gbfield != NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE) {
+                this.intGroups = new IntGroupTable();
+            } else {
+                this.fieldGroups = new HashMap<>();
+                this.groupFields = new ArrayList<>();
+            }
+        }
         if (gbfield == NO_GROUPING) this.aTD = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
         else this.aTD = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupVal", "aggregateVal"});
     }
@@ -55,41 +73,65 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field groupField = null;
-        if (this.gbField != NO_GROUPING) groupField = tup.getField(this.gbField);
-        Integer preVal = groupByMap.get(groupField);
+        int group = group(tup);
         int curVal = ((IntField) tup.getField(this.aField)).getValue();
-        Integer newVal = null;
+        if (group == numGroups) {
+            // a new group
+            if (numGroups == values.length) {
+                values = Arrays.copyOf(values, numGroups * 2);
+                counts = Arrays.copyOf(counts, numGroups * 2);
+            }
+            values[group] = curVal;
+            counts[group] = 1;
+            numGroups++;
+            return;
+        }
         switch (this.op) {
-            case MIN: {
-                if (preVal == null) newVal = curVal;
-                else newVal = Integer.min(preVal, curVal);
+            case MIN:
+                values[group] = Math.min(values[group], curVal);
                 break;
-            } 
-            case MAX: {
-                if (preVal == null) newVal = curVal;
-                else newVal = Integer.max(preVal, curVal);
+            case MAX:
+                values[group] = Math.max(values[group], curVal);
                 break;
-            }
-            case AVG: {
-                if (preVal == null) newVal = curVal;
-                else newVal = preVal + curVal;
-                Integer cnt = countMap.getOrDefault(groupField, 0);
-                countMap.put(groupField, cnt + 1);
-                break;
-            }
-            case SUM: {
-                if (preVal == null) newVal = curVal;
-                else newVal = preVal + curVal;
+            case AVG:
+            case SUM:
+                values[group] += curVal;
                 break;
-            }
-            case COUNT: {
-                if (preVal == null) newVal = 1;
-                else newVal = preVal + 1;
+            default:
                 break;
-            }
         }
-        groupByMap.put(groupField, newVal);
+        counts[group]++;
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        if (this.gbField == NO_GROUPING)
+            return numGroups > 0;
+        Field groupField = tup.getField(this.gbField);
+        if (intGroups != null)
+            return intGroups.find(((IntField) groupField).getValue()) >= 0;
+        return fieldGroups.containsKey(groupField);
+    }
+
+    /**
+     * Returns the number of the group of the tuple, which is numGroups if the
+     * tuple starts a new group
+     */
+    private int group(Tuple tup) {
+        if (this.gbField == NO_GROUPING)
+            return 0;
+        Field groupField = tup.getField(this.gbField);
+        if (intGroups != null)
+            return intGroups.group(((IntField) groupField).getValue());
+        Integer group = fieldGroups.get(groupField);
+        if (group != null)
+            return group;
+        fieldGroups.put(groupField, numGroups);
+        groupFields.add(groupField);
+        return numGroups;
     }
 
     /**
@@ -103,16 +145,19 @@ public class IntegerAggregator implements Aggregator {
     public DbIterator iterator() {
         // some code goes here
         ArrayList<Tuple> aTP = new ArrayList<>();
-        for (Map.Entry<Field, Integer> entry : groupByMap.entrySet()) {
+        for (int group = 0; group < numGroups; group++) {
             Tuple tp = new Tuple(this.aTD);
-            Integer val = entry.getValue();
+            int val = values[group];
             if (this.op == Op.AVG)
-                val = val / countMap.get(entry.getKey());
+                val = val / counts[group];
+            else if (this.op == Op.COUNT)
+                val = counts[group];
             if (this.gbField == NO_GROUPING) {
                 tp.setField(0, new IntField(val));
             } 
             else {
-                tp.setField(0, entry.getKey());
+                tp.setField(0, intGroups != null ? new IntField(intGroups.key(group))
+                        : groupFields.get(group));
                 tp.setField(1, new IntField(val));
             }
             aTP.add(tp);
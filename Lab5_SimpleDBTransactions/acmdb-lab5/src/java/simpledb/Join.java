@@ -3,16 +3,32 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation with a block
+ * nested loops join: the outer relation is read a block of tuples at a time,
+ * and the inner relation is scanned once per block, each inner tuple being
+ * compared with all the tuples of the block. Joined tuples are returned as
+ * they are found, so only one block of outer tuples is held in memory.
  */
 public class Join extends Operator {
 
+    /**
+     * The default size of a block of outer tuples, in pages of tuples
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     private JoinPredicate jp;
     private DbIterator child1;
     private DbIterator child2;
     private TupleDesc joinedtd;
-    private ArrayList<Tuple> joinedtp;
-    private Iterator<Tuple> itr;
+    private final int blockSize;
+    // the current block of outer tuples
+    private final ArrayList<Tuple> block;
+    // the inner tuple being compared with the block, and the position in
+    // the block of the next outer tuple to compare it with
+    private transient Tuple inner;
+    private int blockPos;
+    // whether child2 has not been read since it was opened or rewound
+    private boolean innerFresh;
 
     private static final long serialVersionUID = 1L;
 
@@ -29,12 +45,39 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, blockSize(child1.getTupleDesc()));
+    }
+
+    /**
+     * @return the default number of outer tuples in a block, for an outer
+     *         relation with the given TupleDesc
+     */
+    public static int blockSize(TupleDesc outer) {
+        return Math.max(1, DEFAULT_BLOCK_PAGES * BufferPool.getPageSize() / outer.getSize());
+    }
+
+    /**
+     * Constructor with the number of outer tuples in a block; the inner
+     * relation is scanned once for every blockSize outer tuples.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            The number of outer tuples in a block
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize must be positive");
         this.jp = p;
         this.child1 = child1;
         this.child2 = child2;
         this.joinedtd = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
-        this.joinedtp = new ArrayList<>();
-        this.itr = null;
+        this.blockSize = blockSize;
+        this.block = new ArrayList<>();
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -77,30 +120,19 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
-        int len1 = child1.getTupleDesc().numFields();
-        int len2 = child2.getTupleDesc().numFields();
-        while (child1.hasNext()) {
-            child2.rewind();
-            Tuple tp1 = child1.next();
-            while (child2.hasNext()) {
-                Tuple tp2 = child2.next();
-                if (jp.filter(tp1, tp2)) {
-                    Tuple joined = new Tuple(this.joinedtd);
-                    for (int i = 0; i < len1; ++i) 
-                        joined.setField(i, tp1.getField(i));
-                    for (int i = 0; i < len2; ++i) 
-                        joined.setField(len1 + i, tp2.getField(i));
-                    joinedtp.add(joined);
-                }
-            }
-        }
-        this.itr = joinedtp.iterator();
+        resetState();
+    }
+
+    private void resetState() {
+        this.block.clear();
+        this.inner = null;
+        this.blockPos = 0;
+        this.innerFresh = true;
     }
 
     public void close() {
         // some code goes here
-        this.itr = null;
-        joinedtp.clear();
+        resetState();
         child2.close();
         child1.close();
         super.close();
@@ -108,8 +140,21 @@ public class Join extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.close();
-        this.open();
+        child1.rewind();
+        child2.rewind();
+        resetState();
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     * 
+     * @return false if the outer relation has no more tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext())
+            block.add(child1.next());
+        return !block.isEmpty();
     }
 
     /**
@@ -132,8 +177,40 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.itr.hasNext()) return itr.next();
-        else return null;
+        while (true) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (jp.filter(outer, inner))
+                        return mergeTuples(outer, inner);
+                }
+                inner = null;
+            }
+            if (block.isEmpty()) {
+                if (!readBlock())
+                    return null;
+                if (!innerFresh)
+                    child2.rewind();
+                innerFresh = false;
+            }
+            if (child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+            } else {
+                block.clear();
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple tp1, Tuple tp2) {
+        int len1 = child1.getTupleDesc().numFields();
+        int len2 = child2.getTupleDesc().numFields();
+        Tuple joined = new Tuple(this.joinedtd);
+        for (int i = 0; i < len1; ++i)
+            joined.setField(i, tp1.getField(i));
+        for (int i = 0; i < len2; ++i)
+            joined.setField(len1 + i, tp2.getField(i));
+        return joined;
     }
 
     @Override
@@ -34,6 +34,9 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * An index nested loops join is used only if {@link #orderJoins} marked
+     * the join as cheaper to run by probing an index on the inner join field.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +71,50 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (SortMergeJoin.supports(lj.p) && isSortedOn(plan1, t1id)
+                && isSortedOn(plan2, t2id))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (lj.indexProbe && !(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.canProbe(lj.p, plan2, t2id))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns true if the tuples of the given plan are known to be sorted in
+     * ascending order on the given field: B+ tree scans and sequential scans
+     * of B+ tree files keyed on the field, which read the leaves in key order,
+     * ascending ORDER BYs on the field, filters and limits over such plans,
+     * and the outer join field of sort-merge equality joins.
+     */
+    static boolean isSortedOn(DbIterator plan, int field) {
+        if (plan instanceof BTreeScan) {
+            Catalog catalog = Database.getCatalog();
+            DbFile f = catalog.getDatabaseFile(catalog.getTableId(((BTreeScan) plan).getTableName()));
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (plan instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof TopN) {
+            TopN o = (TopN) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof Filter || plan instanceof Limit) {
+            return isSortedOn(((Operator) plan).getChildren()[0], field);
+        } else if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            return j.getJoinPredicate().getOperator() == Predicate.Op.EQUALS
+                    && j.getJoinPredicate().getField1() == field;
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -111,10 +152,94 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return cost1 + card1 * (cost2 + card2);
+            double indexCost = estimateIndexJoinCost(j, card1, card2, cost1, cost2);
+            double loopCost = estimateLoopJoinCost(j, card1, card2, cost1, cost2);
+            return indexCost >= 0 ? Math.min(indexCost, loopCost) : loopCost;
         }
     }
 
+    /**
+     * Returns true if estimateJoinCost costs the given join as an index
+     * nested loops join, that is, if probing an index on the inner join field
+     * is cheaper than a block nested loops join. The parameters are those of
+     * {@link #estimateJoinCost}.
+     */
+    private boolean prefersIndexProbe(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return false;
+        double indexCost = estimateIndexJoinCost(j, card1, card2, cost1, cost2);
+        return indexCost >= 0 && indexCost < estimateLoopJoinCost(j, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Estimates the cost of a block nested loops join, which scans the inner
+     * relation once per block of outer tuples and compares every pair of
+     * tuples.
+     */
+    private double estimateLoopJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        int blocks = (card1 + joinBlockSize(j.t1Alias) - 1) / joinBlockSize(j.t1Alias);
+        return cost1 + Math.max(blocks, 1) * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimates the cost of an index nested loops join, which instantiateJoin
+     * can use when the inner table is a BTreeFile keyed on the inner join
+     * field. The number of leaves is estimated from the number of tuples of
+     * the table and the number of tuples a leaf page holds, since the file
+     * also holds internal and header pages.
+     * Each outer block is sorted before probing, so the internal pages of the
+     * tree are read once per block; each probe then reads the leaves holding
+     * its matches, one leaf for an equality join and half the leaves for a
+     * range join, and compares the tuples on them.
+     * 
+     * @return the cost, or -1 if the join cannot probe an index
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        if (j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return -1;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return -1;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        TupleDesc td = f.getTupleDesc();
+        if (!(f instanceof BTreeFile) || !j.f2PureName.equals(td.getFieldName(((BTreeFile) f).keyField())))
+            return -1;
+
+        TableStats stats = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        int tuples = stats != null ? stats.totalTuples() : card2;
+        // see BTreeLeafPage.getMaxTuples
+        int leafTuples = Math.max(1, (BufferPool.getPageSize() * 8 - 3 * BTreePage.INDEX_SIZE * 8)
+                / (td.getSize() * 8 + 1));
+        int leaves = Math.max(1, (tuples + leafTuples - 1) / leafTuples);
+        double pageCost = cost2 / Math.max(1, ((BTreeFile) f).numPages());
+        double tuplesPerLeaf = (double) tuples / leaves;
+        int fanout = Math.max(2, BufferPool.getPageSize()
+                / (td.getFieldType(((BTreeFile) f).keyField()).getLen() + 4));
+        int height = 1 + (int) Math.ceil(Math.log(leaves) / Math.log(fanout));
+        double leavesPerProbe = j.p == Predicate.Op.EQUALS ? 1 : Math.max(1, leaves / 2.0);
+
+        int blocks = (card1 + joinBlockSize(j.t1Alias) - 1) / joinBlockSize(j.t1Alias);
+        return cost1 + Math.max(blocks, 1) * height * pageCost
+                + card1 * leavesPerProbe * (pageCost + tuplesPerLeaf);
+    }
+
+    /**
+     * Returns the number of outer tuples in a block of a nested loops join
+     * whose outer relation is the table with the given alias. The width of
+     * the outer tuples is taken to be the width of that table.
+     * 
+     * @return the block size, or 1 if the alias is not a table of the plan
+     */
+    private int joinBlockSize(String alias) {
+        Integer tableId = p.getTableId(alias);
+        if (tableId == null)
+            return 1;
+        return Join.blockSize(Database.getCatalog().getTupleDesc(tableId));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -246,6 +371,8 @@ public class JoinOptimizer {
         //Not necessary for labs 1--3
 
         // some code goes here
+        if (joins.isEmpty())
+            return joins;
         PlanCache pc = new PlanCache();
         int nNodes = joins.size();
         for (int i = 1; i <= nNodes; ++i) {
@@ -398,6 +525,7 @@ public class JoinOptimizer {
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        boolean indexProbe = prefersIndexProbe(j, t1card, t2card, t1cost, t2cost);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -405,9 +533,16 @@ public class JoinOptimizer {
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            indexProbe = prefersIndexProbe(j2, t2card, t1card, t2cost, t1cost);
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (indexProbe) {
+            // instantiateJoin probes the index only if the cost model did;
+            // the other joins of the query share j, so mark a copy of it
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            j.indexProbe = true;
+        }
 
         CostCard cc = new CostCard();
 
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT ... OFFSET: it skips the first
+ * offset tuples of its child and returns at most limit of the following ones.
+ * It stops pulling from its child as soon as the limit is reached, so the
+ * rest of the child is never computed.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int limit;
+    private final int offset;
+    // the number of tuples returned, and whether the offset has been skipped
+    private int returned;
+    private boolean skipped;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples of the child to skip first
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, int offset, DbIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        skipped = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the child
+     * after the offset, until limit tuples have been returned.
+     *
+     * @return the next tuple, or null if there are no more tuples or the limit
+     *         has been reached
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit)
+            return null;
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++)
+                child.next();
+            skipped = true;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
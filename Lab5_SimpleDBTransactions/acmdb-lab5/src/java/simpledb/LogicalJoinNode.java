@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** True if the optimizer costed this join as probing an index on the
+     * inner join field, see {@link JoinOptimizer#instantiateJoin} */
+    public boolean indexProbe;
+
     public LogicalJoinNode() {
     }
 
@@ -12,9 +12,10 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * LogicalPlans can represent queries with any number of aggregation
+ * expressions over any number of group by fields, which are all computed
+ * by a single {@link Aggregate}.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +30,13 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1, offset = 0;
     private String query;
 //    private Query owner;
 
@@ -186,23 +188,56 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+    }
+
+    /** Add an aggregate expression over the field to the query.  All of the
+        aggregate expressions of the query are computed in one pass over
+        its input, and an expression that is added twice is computed once.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
         hasAgg = true;
     }
 
+    /** Add a field to group the aggregates of the query by.  Fields are
+        grouped by in the order they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** @return the index of the aggregate expression among those of the
+        query, or -1 if it has not been added
+    */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equals(op) && aggFields.elementAt(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +251,16 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT ... OFFSET clause: only the limit rows following the first
+        offset rows of the result are returned.
+        @param limit the maximum number of rows to return
+        @param offset the number of rows to skip
+    */
+    public void setLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +316,70 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the columns of a table that the plan references, so that a
+     *   scan of a table in the PAX format only reads those columns.
+     *  @param alias the alias of the table in the plan
+     *  @param td the TupleDesc of the table
+     *  @return the indexes of the referenced columns in increasing order, or
+     *   null if all of the columns are referenced
+     */
+    private int[] getReferencedColumns(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                names.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                names.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                names.add(lj.f2PureName);
+        }
+        ArrayList<String> qualified = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            qualified.add(si.fname);
+        if (hasAgg) {
+            qualified.addAll(aggFields);
+            qualified.addAll(groupByFields);
+        }
+        if (hasOrderBy)
+            qualified.add(oByField);
+        for (String name : qualified) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2) {
+                if (name.equals("*"))
+                    return null;
+            } else if (parts[1].equals("*")) {
+                if (parts[0].equals("null") || parts[0].equals(alias))
+                    return null;
+            } else if (parts[0].equals(alias)) {
+                names.add(parts[1]);
+            }
+        }
+
+        boolean[] used = new boolean[td.numFields()];
+        for (String name : names) {
+            try {
+                used[td.fieldNameToIndex(name)] = true;
+            } catch (NoSuchElementException e) {
+                // unknown fields are reported when the plan is built
+            }
+        }
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < used.length; i++) {
+            if (used[i])
+                columns.add(i);
+        }
+        if (columns.size() == used.length)
+            return null;
+        if (columns.isEmpty())
+            columns.add(0); // the scan still has to return a row per tuple
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,17 +398,26 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scanMap = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] columns = null;
+                 if (f instanceof HeapFile && ((HeapFile) f).getPageFormat() == HeapFile.PageFormat.PAX)
+                     columns = getReferencedColumns(table.alias, f.getTupleDesc());
+                 if (columns == null)
+                     ss = new SeqScan(t, f.getId(), table.alias);
+                 else
+                     ss = new ColumnScan(t, f.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -335,10 +453,14 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            //let the scan skip the pages the zone map rules out
+            scanMap.get(lf.tableAlias).pushDownPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //the stats are indexed by the fields of the table, which a ColumnScan may not all return
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -414,7 +536,7 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size() + aggregateIndex(si.aggOp, si.fname));
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +548,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int group = groupByFields.indexOf(si.fname);
+                    if (group < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(group);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -462,10 +585,16 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,7 +604,17 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int field = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0) {
+                //only the first offset + limit rows of the order are needed
+                node = new TopN(field, oByAsc, (int) Math.min(Integer.MAX_VALUE, (long) limit + offset), node);
+            } else {
+                node = new OrderBy(field, oByAsc, node);
+            }
+        }
+
+        if (limit >= 0 && (offset > 0 || !hasOrderBy)) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
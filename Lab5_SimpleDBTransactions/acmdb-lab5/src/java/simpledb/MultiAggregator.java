@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by any number of
+ * fields, so that a query with many aggregate expressions reads its input
+ * only once.
+ * <p>
+ * Each distinct combination of group-by values is numbered, and the running
+ * value of each aggregate of a group is kept in an int array per aggregate
+ * indexed by its number, next to the count of tuples of the group. Aggregates
+ * over fields that are not INT only support COUNT, as in
+ * {@link StringAggregator}.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] gbFields;
+    private int[] aFields;
+    private Op[] ops;
+    private TupleDesc aTD;
+
+    // the group-by values of each group, and the number of each of them
+    private HashMap<List<Field>, Integer> groups = new HashMap<>();
+    private ArrayList<List<Field>> groupKeys = new ArrayList<>();
+    // the running value of each aggregate of each group, and the count of
+    // tuples of each group
+    private int[][] values;
+    private int[] counts = new int[16];
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple, or
+     *            an empty array if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws UnsupportedOperationException
+     *             if an aggregate over a field that is not INT is not COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        if (afields.length != whats.length)
+            throw new IllegalArgumentException("each aggregate field needs one operator");
+        for (int i = 0; i < afields.length; i++) {
+            if (afieldtypes[i] != Type.INT_TYPE && whats[i] != Op.COUNT)
+                throw new UnsupportedOperationException("string only support count in aggregator");
+        }
+        this.gbFields = gbfields.clone();
+        this.aFields = afields.clone();
+        this.ops = whats.clone();
+        this.values = new int[whats.length][16];
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = gbfieldtypes[i];
+            names[i] = "groupVal" + i;
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = "aggregateVal" + i;
+        }
+        this.aTD = new TupleDesc(types, names);
+    }
+
+    private List<Field> groupKey(Tuple tup) {
+        Field[] key = new Field[gbFields.length];
+        for (int i = 0; i < gbFields.length; i++)
+            key[i] = tup.getField(gbFields[i]);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Merge a new tuple into every aggregate of its group, grouping as
+     * indicated in the constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and the group-by
+     *            fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> key = groupKey(tup);
+        Integer group = groups.get(key);
+        boolean first = group == null;
+        if (first) {
+            group = groupKeys.size();
+            if (group == counts.length) {
+                counts = Arrays.copyOf(counts, group * 2);
+                for (int k = 0; k < values.length; k++)
+                    values[k] = Arrays.copyOf(values[k], group * 2);
+            }
+            groups.put(key, group);
+            groupKeys.add(key);
+        }
+        for (int k = 0; k < ops.length; k++) {
+            if (ops[k] == Op.COUNT)
+                continue;
+            int curVal = ((IntField) tup.getField(aFields[k])).getValue();
+            if (first) {
+                values[k][group] = curVal;
+                continue;
+            }
+            switch (ops[k]) {
+                case MIN:
+                    values[k][group] = Math.min(values[k][group], curVal);
+                    break;
+                case MAX:
+                    values[k][group] = Math.max(values[k][group], curVal);
+                    break;
+                case AVG:
+                case SUM:
+                    values[k][group] += curVal;
+                    break;
+                default:
+                    break;
+            }
+        }
+        counts[group]++;
+    }
+
+    public int numGroups() {
+        return groupKeys.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.containsKey(groupKey(tup));
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by values followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor
+     */
+    public DbIterator iterator() {
+        ArrayList<Tuple> aTP = new ArrayList<>();
+        for (int group = 0; group < groupKeys.size(); group++) {
+            Tuple tp = new Tuple(this.aTD);
+            List<Field> key = groupKeys.get(group);
+            for (int i = 0; i < key.size(); i++)
+                tp.setField(i, key.get(i));
+            for (int k = 0; k < ops.length; k++) {
+                int val = values[k][group];
+                if (ops[k] == Op.AVG)
+                    val = val / counts[group];
+                else if (ops[k] == Op.COUNT)
+                    val = counts[group];
+                tp.setField(key.size() + k, new IntField(val));
+            }
+            aTP.add(tp);
+        }
+        return new TupleIterator(this.aTD, aTP);
+    }
+
+}
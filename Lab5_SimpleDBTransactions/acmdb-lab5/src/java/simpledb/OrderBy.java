@@ -1,13 +1,30 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted in memory when it fits in the memory budget. Otherwise
+ * it is sorted with an external merge sort: replacement selection through a
+ * heap of as many tuples as the budget holds writes sorted runs, about twice
+ * the size of the heap on random input, to {@link SpillFile}s, and the runs
+ * are merged with a loser tree. When there are more runs than the budget has
+ * room for read buffers, groups of runs are first merged into longer runs.
+ * The final merge streams its output, so nothing but the heads of the runs
+ * is held in memory while tuples are returned.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget of the sort, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    // the memory taken by the read buffer of a run being merged
+    private static final int RUN_BUFFER_BYTES = 8192;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +32,14 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final long memoryBudget;
+    private final TupleComparator comparator;
+
+    // the runs of the final merge, null if the child was sorted in memory
+    private transient ArrayList<SpillFile> runs = null;
+    private transient LoserTree merge = null;
+    private int runCount = 0;
+    private long spilledBytes = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +52,30 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node with the memory budget of the sort.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            the number of bytes of tuples the sort may hold in memory,
+     *            counting each tuple as its TupleDesc size
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, long memoryBudget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = memoryBudget;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -53,24 +97,164 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open, or
+     *         0 if the child was sorted in memory
+     */
+    public int getRuns() {
+        return runCount;
+    }
+
+    /**
+     * @return the number of bytes written to disk by the last open, by the
+     *         runs and by the merges of runs
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        deleteRuns();
+        childTups.clear();
+        runCount = 0;
+        spilledBytes = 0;
+        int memoryTuples = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, memoryBudget / td.getSize()));
+
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        // load the tuples in a collection, and sort it if they all fit
+        while (childTups.size() < memoryTuples && child.hasNext())
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (!child.hasNext()) {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        } else {
+            writeRuns(memoryTuples);
+            int fanIn = (int) Math.max(2, memoryBudget / RUN_BUFFER_BYTES);
+            while (runs.size() > fanIn)
+                mergeRuns(fanIn);
+            merge = openMerge(runs);
+        }
         super.open();
     }
 
+    /**
+     * A tuple in the replacement selection heap, with the run it goes to.
+     */
+    private static class RunTuple {
+        final int run;
+        final Tuple tuple;
+
+        RunTuple(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Writes the tuples of childTups and the rest of the child to sorted runs
+     * with replacement selection: the smallest tuple of the heap is written to
+     * the current run and replaced by the next tuple of the child, which goes
+     * to the next run if it is smaller than the tuple just written.
+     */
+    private void writeRuns(int memoryTuples) throws DbException, TransactionAbortedException {
+        PriorityQueue<RunTuple> heap = new PriorityQueue<RunTuple>(memoryTuples,
+                new Comparator<RunTuple>() {
+                    public int compare(RunTuple a, RunTuple b) {
+                        if (a.run != b.run)
+                            return a.run < b.run ? -1 : 1;
+                        return comparator.compare(a.tuple, b.tuple);
+                    }
+                });
+        for (Tuple t : childTups)
+            heap.add(new RunTuple(0, t));
+        childTups.clear();
+
+        runs = new ArrayList<SpillFile>();
+        SpillFile run = null;
+        int current = -1;
+        try {
+            while (!heap.isEmpty()) {
+                RunTuple smallest = heap.poll();
+                if (smallest.run != current) {
+                    current = smallest.run;
+                    run = new SpillFile(td);
+                    runs.add(run);
+                }
+                run.add(smallest.tuple);
+                if (child.hasNext()) {
+                    Tuple t = child.next();
+                    boolean fits = comparator.compare(t, smallest.tuple) >= 0;
+                    heap.add(new RunTuple(fits ? current : current + 1, t));
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write sorted run: " + e.getMessage());
+        }
+        runCount = runs.size();
+        for (SpillFile f : runs)
+            spilledBytes += f.bytes();
+    }
+
+    /**
+     * Merges the first fanIn runs into one run, appended to the list of runs.
+     */
+    private void mergeRuns(int fanIn) throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> group = new ArrayList<SpillFile>(runs.subList(0, fanIn));
+        runs.subList(0, fanIn).clear();
+        LoserTree tree = openMerge(group);
+        try {
+            SpillFile merged = new SpillFile(td);
+            while (tree.hasNext())
+                merged.add(tree.next());
+            runs.add(merged);
+            spilledBytes += merged.bytes();
+        } catch (IOException e) {
+            throw new DbException("cannot write sorted run: " + e.getMessage());
+        } finally {
+            tree.close();
+            for (SpillFile f : group)
+                f.delete();
+        }
+    }
+
+    private LoserTree openMerge(List<SpillFile> files) throws DbException, TransactionAbortedException {
+        DbIterator[] sources = new DbIterator[files.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = files.get(i).iterator();
+            sources[i].open();
+        }
+        return new LoserTree(sources, comparator);
+    }
+
+    private void deleteRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        deleteRuns();
+        childTups.clear();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs != null) {
+            merge.close();
+            merge = openMerge(runs);
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -82,7 +266,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (merge != null) {
+            return merge.hasNext() ? merge.next() : null;
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -98,6 +284,81 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /**
+     * A loser tree merging sorted sources. The leaves are the heads of the
+     * sources, and each internal node holds the source that lost the match
+     * played there, so replacing the winner's head only replays the matches
+     * on the path from its leaf to the root: log2(k) comparisons per tuple.
+     */
+    private static class LoserTree {
+        private final DbIterator[] sources;
+        private final Tuple[] heads;
+        private final Comparator<Tuple> comparator;
+        // tree[0] is the winner, tree[1..k-1] the losers of the matches;
+        // the leaf of source i is node k + i
+        private final int[] tree;
+
+        LoserTree(DbIterator[] sources, Comparator<Tuple> comparator)
+                throws DbException, TransactionAbortedException {
+            int k = sources.length;
+            this.sources = sources;
+            this.comparator = comparator;
+            this.heads = new Tuple[k];
+            this.tree = new int[k];
+            for (int i = 0; i < k; i++)
+                heads[i] = sources[i].hasNext() ? sources[i].next() : null;
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++)
+                winners[k + i] = i;
+            for (int n = k - 1; n >= 1; n--) {
+                int a = winners[2 * n], b = winners[2 * n + 1];
+                if (beats(a, b)) {
+                    winners[n] = a;
+                    tree[n] = b;
+                } else {
+                    winners[n] = b;
+                    tree[n] = a;
+                }
+            }
+            tree[0] = k == 1 ? 0 : winners[1];
+        }
+
+        // exhausted sources lose to all others, and ties go to the first
+        // source
+        private boolean beats(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = comparator.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        boolean hasNext() {
+            return heads[tree[0]] != null;
+        }
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            int s = tree[0];
+            Tuple t = heads[s];
+            heads[s] = sources[s].hasNext() ? sources[s].next() : null;
+            for (int n = (s + sources.length) / 2; n >= 1; n /= 2) {
+                if (beats(tree[n], s)) {
+                    int loser = s;
+                    s = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = s;
+            return t;
+        }
+
+        void close() {
+            for (DbIterator source : sources)
+                source.close();
+        }
+    }
+
 }
 
 class TupleComparator implements Comparator<Tuple> {
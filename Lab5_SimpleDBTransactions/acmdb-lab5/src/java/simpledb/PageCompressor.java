@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCompressor is a fast LZ77 block compressor in the LZF format, used to
+ * store the pages of compressed heap files. It favors speed over ratio: a
+ * single hash probe looks for a match of at least 3 bytes within the last
+ * 8KB, which is enough for the long runs of zero bytes in empty slots and the
+ * padding of strings, and for repeated values in columns.
+ * <p>
+ * The compressed data is a sequence of chunks, each starting with a control
+ * byte c:
+ * <ul>
+ * <li> c &lt; 32: c + 1 literal bytes follow
+ * <li> otherwise: a back reference of length (c &gt;&gt; 5) + 2 bytes, where a
+ *      length field of 7 is followed by a byte to add to it, and the offset
+ *      minus one is the low 5 bits of c followed by one more byte
+ * </ul>
+ *
+ * @see CompressedPageFile
+ */
+public class PageCompressor {
+
+    private static final int HASH_BITS = 14;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_LENGTH = 7 + 255 + 2;
+
+    private PageCompressor() {
+    }
+
+    private static int hash(byte[] in, int i) {
+        int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8) | (in[i + 2] & 0xff);
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Copy a run of literals to the output
+     *
+     * @return the new output position, or -1 if the output is full
+     */
+    private static int literals(byte[] in, int start, int end, byte[] out, int op) {
+        while (start < end) {
+            int n = Math.min(MAX_LITERAL, end - start);
+            if (op + 1 + n > out.length)
+                return -1;
+            out[op++] = (byte) (n - 1);
+            System.arraycopy(in, start, out, op, n);
+            op += n;
+            start += n;
+        }
+        return op;
+    }
+
+    /**
+     * Compress the first len bytes of in into out.
+     *
+     * @return the length of the compressed data, or -1 if it does not fit in
+     *         out
+     */
+    public static int compress(byte[] in, int len, byte[] out) {
+        int[] table = new int[1 << HASH_BITS];
+        int ip = 0;
+        int op = 0;
+        int literalStart = 0;
+        while (ip < len - 2) {
+            int h = hash(in, ip);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            int off = ip - ref - 1;
+            if (ref < 0 || off >= MAX_OFFSET || in[ref] != in[ip] || in[ref + 1] != in[ip + 1]
+                    || in[ref + 2] != in[ip + 2]) {
+                ip++;
+                continue;
+            }
+            op = literals(in, literalStart, ip, out, op);
+            if (op < 0 || op + 3 > out.length)
+                return -1;
+            int max = Math.min(MAX_LENGTH, len - ip);
+            int n = 3;
+            while (n < max && in[ref + n] == in[ip + n])
+                n++;
+            int l = n - 2;
+            if (l < 7) {
+                out[op++] = (byte) ((l << 5) | (off >>> 8));
+            } else {
+                out[op++] = (byte) ((7 << 5) | (off >>> 8));
+                out[op++] = (byte) (l - 7);
+            }
+            out[op++] = (byte) off;
+            ip += n;
+            literalStart = ip;
+        }
+        return literals(in, literalStart, len, out, op);
+    }
+
+    /**
+     * Decompress the first len bytes of in into out.
+     *
+     * @return the length of the decompressed data
+     * @throws IOException if the data is corrupt or does not fit in out
+     */
+    public static int decompress(byte[] in, int len, byte[] out) throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < len) {
+                int c = in[ip++] & 0xff;
+                if (c < MAX_LITERAL) {
+                    int n = c + 1;
+                    if (ip + n > len)
+                        throw new IOException("literal run past end of compressed data");
+                    System.arraycopy(in, ip, out, op, n);
+                    ip += n;
+                    op += n;
+                } else {
+                    int n = c >>> 5;
+                    if (n == 7)
+                        n += in[ip++] & 0xff;
+                    int ref = op - ((c & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+                    if (ref < 0)
+                        throw new IOException("back reference before start of data");
+                    n += 2;
+                    if (op + n > out.length)
+                        throw new IOException("compressed data too long");
+                    // the reference may overlap the bytes being copied
+                    for (int i = 0; i < n; i++)
+                        out[op++] = out[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed data", e);
+        }
+        return op;
+    }
+}
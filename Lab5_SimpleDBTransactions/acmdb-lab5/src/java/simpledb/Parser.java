@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +183,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +204,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +214,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAggregate = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +235,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
@@ -273,12 +267,44 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    // Zql has no LIMIT clause, so a trailing LIMIT n [OFFSET m] is removed
+    // from the statement before it is parsed, and added to its logical plan
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*\\S)\\s+limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?\\s*(;?)\\s*$");
+    private int limit = -1;
+    private int offset = 0;
+
+    /**
+     * Removes a trailing LIMIT clause from a statement, remembering it for
+     * the query the statement is parsed into.
+     * 
+     * @return the statement without its LIMIT clause
+     * @throws simpledb.ParsingException
+     *             if the limit or offset is too large
+     */
+    private String stripLimit(String statement) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(statement);
+        if (!m.matches())
+            return statement;
+        try {
+            limit = Integer.parseInt(m.group(2));
+            offset = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT or OFFSET out of range");
+        }
+        return m.group(1) + m.group(4);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit, offset);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -343,6 +369,9 @@ public class Parser {
         DbIterator newTups;
 
         if (s.getValues() != null) {
+            if (limit >= 0)
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on queries, not on INSERT ... VALUES");
             @SuppressWarnings("unchecked")
             Vector<ZExp> values = (Vector<ZExp>) s.getValues();
             if (td.numFields() != values.size()) {
@@ -387,6 +416,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (limit >= 0)
+                lp.setLimit(limit, offset);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -408,6 +439,8 @@ public class Parser {
             throw new simpledb.ParsingException("Unknown table : "
                     + s.getTable());
         }
+        if (limit >= 0)
+            throw new simpledb.ParsingException("LIMIT is not supported on DELETE");
         String name = s.getTable();
         Query sdbq = new Query(tid);
 
@@ -465,12 +498,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.setLimit(limit, offset);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +538,12 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0;)
+                statement.write(buf, 0, n);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(statement.toString("UTF-8")).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -581,7 +621,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset" };
 
     public static void main(String argv[]) throws IOException {
 
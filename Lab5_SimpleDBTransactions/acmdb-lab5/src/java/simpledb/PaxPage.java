@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * PaxPage is a HeapPage stored in the PAX layout: the page holds the same
+ * tuples as a HeapPage, but the values of each column are stored together in
+ * a minipage instead of each tuple being stored as a record.
+ * <p>
+ * The format of a PaxPage is the header bitmap of a HeapPage followed by one
+ * minipage per column. The minipage of column j holds numSlots values of
+ * column j, the value of slot i at offset i * (size of column j); the value
+ * of an empty slot is all zeroes.
+ * <p>
+ * A scan that needs a few columns reads them with {@link #getIntColumn} and
+ * {@link #getColumn}, which go through the values of one column contiguously
+ * and never touch the other columns, see {@link ColumnScan}. Tuples read
+ * through the iterator are decoded from the minipages one at a time.
+ *
+ * @see HeapFile.PageFormat#PAX
+ */
+public class PaxPage extends HeapPage {
+
+    // the data the page was read from
+    private final byte[] paxData;
+    // offset of the minipage of each column
+    private final int[] columnOffsets;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, getNumTuples(Database.getCatalog().getTupleDesc(id.getTableId())));
+        if (data.length < BufferPool.getPageSize())
+            throw new EOFException("page data too short");
+        this.paxData = data;
+        System.arraycopy(data, 0, header, 0, header.length);
+        this.columnOffsets = new int[td.numFields()];
+        int offset = header.length;
+        for (int j = 0; j < td.numFields(); j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples on a page, the same as for a HeapPage
+     */
+    private static int getNumTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private int getValueOffset(int slot, int col) {
+        return columnOffsets[col] + slot * td.getFieldType(col).getLen();
+    }
+
+    /**
+     * Create the tuple in slot i from the values in the minipages.
+     */
+    Tuple createTuple(int i) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, Tuple.decodeField(td.getFieldType(j), paxData, getValueOffset(i, j)));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * @return the numbers of the used slots, in increasing order
+     */
+    public int[] getUsedSlots() {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        return Arrays.copyOf(slots, n);
+    }
+
+    /**
+     * Read the values of an integer column.
+     *
+     * @param col the column, which must be of type INT_TYPE
+     * @param slots the slots to read, as returned by getUsedSlots
+     * @return the value of the column in each slot
+     */
+    public int[] getIntColumn(int col, int[] slots) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("column " + col + " is not an integer column");
+        int[] values = new int[slots.length];
+        int base = columnOffsets[col];
+        for (int k = 0; k < slots.length; k++) {
+            Tuple t = tuples[slots[k]];
+            if (t != null) {
+                // the tuple may have been changed since the page was read
+                values[k] = ((IntField) t.getField(col)).getValue();
+            } else {
+                int o = base + slots[k] * 4;
+                values[k] = ((paxData[o] & 0xff) << 24) | ((paxData[o + 1] & 0xff) << 16)
+                        | ((paxData[o + 2] & 0xff) << 8) | (paxData[o + 3] & 0xff);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read the values of a column of any type.
+     *
+     * @param col the column
+     * @param slots the slots to read, as returned by getUsedSlots
+     * @return the value of the column in each slot
+     */
+    public Field[] getColumn(int col, int[] slots) {
+        Field[] values = new Field[slots.length];
+        for (int k = 0; k < slots.length; k++) {
+            Tuple t = tuples[slots[k]];
+            values[k] = t != null ? t.getField(col)
+                    : Tuple.decodeField(td.getFieldType(col), paxData, getValueOffset(slots[k], col));
+        }
+        return values;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, getOldData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * PAX layout. The values of slots whose tuple was never read are copied
+     * from the data the page was read from.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] data = paxData == null ? new byte[BufferPool.getPageSize()] : paxData.clone();
+        System.arraycopy(header, 0, data, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_LEN + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < numSlots; i++) {
+            boolean used = isSlotUsed(i);
+            if (used && tuples[i] == null)
+                continue;
+            for (int j = 0; j < td.numFields(); j++) {
+                int offset = getValueOffset(i, j);
+                int len = td.getFieldType(j).getLen();
+                if (!used) {
+                    Arrays.fill(data, offset, offset + len, (byte) 0);
+                    continue;
+                }
+                baos.reset();
+                try {
+                    tuples[i].getField(j).serialize(dos);
+                    dos.flush();
+                } catch (IOException e) {
+                    // this really shouldn't happen
+                    e.printStackTrace();
+                }
+                System.arraycopy(baos.toByteArray(), 0, data, offset, len);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SecondaryHashFile is a HashFile used as a secondary index over one field of
+ * a HeapFile. Each of its tuples is an index entry (key, pageno, tupleno)
+ * pointing to the record of the heap file holding the key, so a lookup costs
+ * a bucket read plus one heap page read per match. Tuples only move when
+ * {@link HeapFile#vacuum} compacts the heap file, which moves the entries of
+ * the indexes registered in the catalog along with them.
+ * <p>
+ * The index is not maintained automatically: callers keep it up to date with
+ * {@link #insertEntry} and {@link #deleteEntry}, or fill it from the current
+ * contents of the table with {@link #build}.
+ *
+ * @see HashFile
+ */
+public class SecondaryHashFile extends HashFile {
+
+	private final int tableid;
+	private final int indexedField;
+
+	/**
+	 * Constructs a secondary hash index backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this index
+	 * @param tableid - the id of the heap file being indexed
+	 * @param field - the field of the heap file the index is keyed on
+	 */
+	public SecondaryHashFile(File f, int tableid, int field) {
+		super(f, 0, entryDesc(Database.getCatalog().getTupleDesc(tableid).getFieldType(field)));
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+			throw new IllegalArgumentException("secondary hash indexes can only be built over heap files");
+		this.tableid = tableid;
+		this.indexedField = field;
+	}
+
+	/**
+	 * @param keyType - the type of the indexed field
+	 * @return the TupleDesc of the entries of an index on a field of that type
+	 */
+	public static TupleDesc entryDesc(Type keyType) {
+		return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { "key", "pageno", "tupleno" });
+	}
+
+	/**
+	 * @return the id of the heap file this index points into
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the field of the heap file this index is keyed on
+	 */
+	public int indexedField() {
+		return indexedField;
+	}
+
+	private Tuple entryOf(Tuple t) {
+		RecordId rid = t.getRecordId();
+		Tuple entry = new Tuple(getTupleDesc());
+		entry.setField(0, t.getField(indexedField));
+		entry.setField(1, new IntField(rid.getPageId().pageNumber()));
+		entry.setField(2, new IntField(rid.tupleno()));
+		return entry;
+	}
+
+	/**
+	 * Add the index entry of a tuple stored in the heap file.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - a tuple of the heap file, with its record id set
+	 */
+	public void insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Database.getBufferPool().insertTuple(tid, getId(), entryOf(t));
+	}
+
+	/**
+	 * Remove the index entry of a tuple stored in the heap file.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - a tuple of the heap file, with its record id set
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public void deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple target = entryOf(t);
+		DbFileIterator it = indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, target.getField(0)));
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple entry = it.next();
+				if (entry.getField(1).equals(target.getField(1)) && entry.getField(2).equals(target.getField(2))) {
+					Database.getBufferPool().deleteTuple(tid, entry);
+					return;
+				}
+			}
+		} finally {
+			it.close();
+		}
+		throw new DbException("no index entry for tuple " + t);
+	}
+
+	/**
+	 * Add an index entry for every tuple currently stored in the heap file.
+	 *
+	 * @param tid - the transaction id
+	 */
+	public void build(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		it.open();
+		while (it.hasNext())
+			insertEntry(tid, it.next());
+		it.close();
+	}
+
+	/**
+	 * Get the tuples of the heap file whose indexed field equals the given key.
+	 * This method will acquire a read lock on the bucket pages of the key and on
+	 * the heap pages of the matching tuples.
+	 *
+	 * @param tid - the transaction id
+	 * @param key - the key to look up
+	 * @return an iterator over the matching tuples of the heap file
+	 */
+	public DbFileIterator lookup(final TransactionId tid, final Field key) {
+		final DbFileIterator entries = indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+		return new AbstractDbFileIterator() {
+			public void open() throws DbException, TransactionAbortedException {
+				entries.open();
+			}
+
+			protected Tuple readNext() throws DbException, TransactionAbortedException {
+				while (entries.hasNext()) {
+					Tuple entry = entries.next();
+					HeapPageId pid = new HeapPageId(tableid, ((IntField) entry.getField(1)).getValue());
+					HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+					Tuple t = page.getTuple(((IntField) entry.getField(2)).getValue());
+					// skip entries left behind by tuples deleted without their entry
+					if (t != null && t.getField(indexedField).equals(key))
+						return t;
+				}
+				return null;
+			}
+
+			public void rewind() throws DbException, TransactionAbortedException {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				entries.close();
+			}
+		};
+	}
+
+}
@@ -14,6 +14,7 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -57,6 +58,20 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -75,6 +90,24 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
     }
 
+    /**
+     * Push a predicate down to this scan. The pages of a heap file whose zone
+     * map shows that none of their tuples satisfies the predicate are not
+     * read. The tuples of the other pages are all returned, so the predicate
+     * must still be applied by a Filter above the scan. Must be called before
+     * the scan is opened.
+     *
+     * @param p
+     *            a predicate on a field of the tuples of this scan
+     * @see ZoneMap
+     */
+    public void pushDownPredicate(Predicate p) {
+        this.predicates.add(p);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (file instanceof HeapFile)
+            this.iterator = ((HeapFile) file).iterator(this.tid, this.predicates);
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
@@ -67,6 +67,23 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("vacuum")) {
+            // compact a table of a catalog after mass deletes
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: vacuum catalogFile tableName [batchPages]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            DbFile table = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(args[2]));
+            if (!(table instanceof HeapFile)) {
+                System.err.println("Table " + args[2] + " is not a heap file");
+                return;
+            }
+            int batchPages = args.length == 4 ? Integer.parseInt(args[3]) : 16;
+            HeapFile hf = (HeapFile) table;
+            int removed = hf.vacuum(batchPages);
+            System.out.println("Removed " + removed + " pages, " + hf.numPages() + " left");
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
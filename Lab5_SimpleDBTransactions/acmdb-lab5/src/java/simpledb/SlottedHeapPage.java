@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a HeapPage stored in the slotted page format, with
+ * variable-length records. A string field only takes the bytes of its value
+ * plus a 2 byte length instead of STRING_LEN + 4 bytes, so tables of short
+ * strings fit many more tuples per page than with the fixed-width format.
+ * <p>
+ * The format of a SlottedHeapPage is:
+ * <ul>
+ * <li> a 4 byte format marker, {@link #FORMAT_MARKER}
+ * <li> a 2 byte number of slots in the slot directory
+ * <li> a 2 byte offset of the start of the records
+ * <li> the slot directory: a 2 byte offset and a 2 byte length for each slot,
+ *      both 0 if the slot is empty
+ * <li> free space
+ * <li> the records, packed at the end of the page
+ * </ul>
+ * An integer field is stored in 4 bytes and a string field as a 2 byte
+ * length followed by its bytes. A page that is all zeroes is an empty page,
+ * as created by {@link HeapPage#createEmptyPageData()}.
+ * <p>
+ * The slot of a tuple never changes, so record ids stay valid; the records are
+ * compacted every time the page is written.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, HeapFile.PageFormat, boolean)
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** The marker at the start of every non-empty slotted page */
+    public static final int FORMAT_MARKER = 0x534c5430; // "SLT0"
+
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+    private static final int STRING_LEN_SIZE = 2;
+
+    // the number of bytes taken by the records of the tuples on the page
+    private int recordBytes = 0;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the data is not a page in the slotted format
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, getMaxSlots(Database.getCatalog().getTupleDesc(id.getTableId())));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int marker = buf.getInt(0);
+        int slots = buf.getShort(4) & 0xffff;
+        if (marker != FORMAT_MARKER && (marker != 0 || slots != 0))
+            throw new IOException("page " + id.pageNumber() + " is not in the slotted format");
+        if (slots > numSlots)
+            throw new IOException("page " + id.pageNumber() + " has too many slots");
+
+        try {
+            for (int i = 0; i < slots; i++) {
+                int offset = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+                int len = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+                if (len == 0)
+                    continue;
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, offset, len));
+                tuples[i] = readRecord(dis, i);
+                markSlotUsed(i, true);
+                recordBytes += len;
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the smallest number of bytes a tuple of the given type can take
+     */
+    private static int getMinRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? STRING_LEN_SIZE : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * @return the largest number of tuples of the given type a page can hold,
+     *         when all the tuples take as little space as possible
+     */
+    private static int getMaxSlots(TupleDesc td) {
+        return Math.min(0xffff, (BufferPool.getPageSize() - HEADER_SIZE) / (SLOT_SIZE + getMinRecordSize(td)));
+    }
+
+    /**
+     * @return the number of bytes the record of the tuple takes
+     */
+    private int getRecordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += STRING_LEN_SIZE + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    private Tuple readRecord(DataInputStream dis, int slotId) throws IOException, java.text.ParseException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                byte bs[] = new byte[dis.readShort()];
+                dis.readFully(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+            else {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+        }
+        return t;
+    }
+
+    private byte[] writeRecord(Tuple t) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getRecordSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                dos.writeShort(s.length());
+                dos.writeBytes(s);
+            }
+            else {
+                t.getField(j).serialize(dos);
+            }
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the number of entries of the slot directory, which goes up to
+     *         the last used slot
+     */
+    private int getDirectorySize() {
+        for (int i = numSlots - 1; i >= 0; i--)
+            if (isSlotUsed(i))
+                return i + 1;
+        return 0;
+    }
+
+    /**
+     * @return the number of bytes of the page not used by the header, the
+     *         slot directory or the records
+     */
+    private int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * getDirectorySize() - recordBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, getOldData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * slotted format.
+     *
+     * @see #SlottedHeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        int slots = getDirectorySize();
+        if (slots == 0)
+            return data;
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int start = data.length;
+        try {
+            for (int i = 0; i < slots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                byte[] record = writeRecord(tuples[i]);
+                start -= record.length;
+                System.arraycopy(record, 0, data, start, record.length);
+                buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) start);
+                buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) record.length);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        buf.putInt(0, FORMAT_MARKER);
+        buf.putShort(4, (short) slots);
+        buf.putShort(6, (short) start);
+        return data;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot.
+     * @throws DbException if the page does not have enough free space for the
+     *         tuple or tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("The tupledesc is dismatch");
+        if (!hasRoomFor(t)) throw new DbException("Not enough free space when insertTuple");
+        super.insertTuple(t);
+        recordBytes += getRecordSize(t);
+    }
+
+    /**
+     * Delete the specified tuple from the page, freeing the space of its record.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        super.deleteTuple(t);
+        recordBytes -= getRecordSize(tuples[t.getRecordId().tupleno()]);
+    }
+
+    /**
+     * Returns true if the page has an empty slot and enough free space for
+     * the record of the specified tuple.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            return false;
+        int needed = getRecordSize(t) + (slot >= getDirectorySize() ? SLOT_SIZE : 0);
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns the number of tuples that can still be added to this page if
+     * they take as little space as possible. Larger tuples may not fit even
+     * if this is not 0, see {@link #hasRoomFor(Tuple)}.
+     */
+    public int getNumEmptySlots() {
+        int minSize = getMinRecordSize(td);
+        int free = getFreeSpace();
+        int used = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                used++;
+
+        // empty slots inside the directory only need room for the record
+        int holes = getDirectorySize() - used;
+        int n = Math.min(holes, free / minSize);
+        free -= n * minSize;
+        if (n == holes)
+            n += free / (minSize + SLOT_SIZE);
+        return Math.min(n, numSlots - used);
+    }
+}
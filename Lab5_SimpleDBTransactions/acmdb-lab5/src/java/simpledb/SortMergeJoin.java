@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order on
+ * their join fields, such as B+ tree scans or the output of an ascending
+ * OrderBy. It does not sort its inputs, and returns wrong results if they are
+ * not sorted.
+ * <p>
+ * Equality joins merge the two inputs in a single pass; only the run of inner
+ * tuples sharing the current join value is held in memory, and it is reused
+ * by all the outer tuples with that value. The output is sorted on the outer
+ * join field.
+ * <p>
+ * Range joins use the fact that the tuples matching a given tuple form a
+ * prefix of the other input, which grows with the tuple: for outer &gt; inner
+ * (or &gt;=) the inner tuples smaller than each outer tuple match, and for
+ * outer &lt; inner (or &lt;=) the outer tuples smaller than each inner tuple
+ * do. The prefix side is read once, up to the first tuple that does not match
+ * the current tuple of the other side, and the tuples read so far are
+ * buffered so that they can be joined with the following tuples too.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate jp;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+
+    // equality joins: the current outer tuple, the run of inner tuples whose
+    // join field equals the run value, the position in the run of the next
+    // inner tuple to join with the outer tuple, and the first inner tuple
+    // after the run
+    private transient Tuple outer;
+    private final ArrayList<Tuple> run = new ArrayList<Tuple>();
+    private transient Field runValue;
+    private int runPos;
+    private transient Tuple innerNext;
+    private boolean innerStarted;
+
+    // range joins: the tuple of the driving side being joined, the tuples of
+    // the prefix side matching it, the position in the prefix of the next
+    // tuple to join with it, and the first tuple of the prefix side that did
+    // not match
+    private transient Tuple driver;
+    private final ArrayList<Tuple> prefixTuples = new ArrayList<Tuple>();
+    private int prefixPos;
+    private transient Tuple prefixNext;
+    private boolean prefixStarted;
+
+    /**
+     * Constructor. Accepts two children sorted in ascending order on their
+     * join fields, and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin cannot join on "
+                    + p.getOperator());
+        this.jp = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on the given operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return jp;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(jp.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(jp.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private boolean isEquiJoin() {
+        return jp.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    // for outer < inner the outer relation is the prefix side
+    private boolean outerIsPrefix() {
+        return jp.getOperator() == Predicate.Op.LESS_THAN
+                || jp.getOperator() == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        resetState();
+        super.open();
+    }
+
+    private void resetState() {
+        outer = null;
+        run.clear();
+        runValue = null;
+        runPos = 0;
+        innerNext = null;
+        innerStarted = false;
+        driver = null;
+        prefixTuples.clear();
+        prefixPos = 0;
+        prefixNext = null;
+        prefixStarted = false;
+    }
+
+    public void close() {
+        super.close();
+        resetState();
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        resetState();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with Join, the tuples returned are the concatenation of
+     * joining tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return isEquiJoin() ? fetchNextEquals() : fetchNextRange();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && runPos < run.size())
+                return mergeTuples(outer, run.get(runPos++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            runPos = 0;
+            Field value = outer.getField(jp.getField1());
+            if (runValue != null && value.compare(Predicate.Op.EQUALS, runValue))
+                continue;
+
+            // skip the inner tuples smaller than the outer tuple, and read the
+            // run of inner tuples equal to it
+            run.clear();
+            runValue = null;
+            if (!innerStarted) {
+                innerNext = child2.hasNext() ? child2.next() : null;
+                innerStarted = true;
+            }
+            while (innerNext != null
+                    && innerNext.getField(jp.getField2()).compare(Predicate.Op.LESS_THAN, value))
+                innerNext = child2.hasNext() ? child2.next() : null;
+            if (innerNext == null)
+                return null;
+            runValue = value;
+            while (innerNext != null
+                    && innerNext.getField(jp.getField2()).compare(Predicate.Op.EQUALS, value)) {
+                run.add(innerNext);
+                innerNext = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException, DbException {
+        DbIterator driving = outerIsPrefix() ? child2 : child1;
+        DbIterator prefix = outerIsPrefix() ? child1 : child2;
+        while (true) {
+            if (driver != null && prefixPos < prefixTuples.size()) {
+                Tuple t = prefixTuples.get(prefixPos++);
+                return outerIsPrefix() ? mergeTuples(t, driver) : mergeTuples(driver, t);
+            }
+            if (!driving.hasNext())
+                return null;
+            driver = driving.next();
+            prefixPos = 0;
+
+            // the prefix matching the driving tuple contains the prefix
+            // matching the previous one, so only read on from where it ended
+            if (!prefixStarted) {
+                prefixNext = prefix.hasNext() ? prefix.next() : null;
+                prefixStarted = true;
+            }
+            while (prefixNext != null && (outerIsPrefix() ? jp.filter(prefixNext, driver)
+                    : jp.filter(driver, prefixNext))) {
+                prefixTuples.add(prefixNext);
+                prefixNext = prefix.hasNext() ? prefix.next() : null;
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple tp1, Tuple tp2) {
+        int len1 = child1.getTupleDesc().numFields();
+        int len2 = child2.getTupleDesc().numFields();
+        Tuple joined = new Tuple(td);
+        for (int i = 0; i < len1; ++i)
+            joined.setField(i, tp1.getField(i));
+        for (int i = 0; i < len2; ++i)
+            joined.setField(len1 + i, tp2.getField(i));
+        return joined;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
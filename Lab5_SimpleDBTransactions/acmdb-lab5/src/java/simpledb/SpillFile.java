@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by operators whose state
+ * does not fit in their memory budget. Tuples are appended with
+ * {@link #add}, and read back in the order they were added, any number of
+ * times, with {@link #iterator}. Fields are stored in their serialized form,
+ * so a tuple takes td.getSize() bytes. The file is deleted by
+ * {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long size = 0;
+
+    /**
+     * Create an empty spill file for tuples with the given TupleDesc.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Append a tuple to the file.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the tuples take on disk
+     */
+    public long bytes() {
+        return size * td.getSize();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private void flush() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples added so far. Tuples added after
+     * the iterator is opened are not returned by it.
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private DataInputStream in = null;
+            private long remaining;
+
+            public void open() throws DbException {
+                try {
+                    flush();
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                } catch (IOException e) {
+                    throw new DbException("cannot read spill file " + file + ": " + e.getMessage());
+                }
+                remaining = size;
+            }
+
+            public boolean hasNext() {
+                return in != null && remaining > 0;
+            }
+
+            public Tuple next() throws DbException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++)
+                        t.setField(i, td.getFieldType(i).parse(in));
+                } catch (ParseException e) {
+                    throw new DbException("corrupt spill file " + file);
+                }
+                remaining--;
+                return t;
+            }
+
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // nothing was written, so there is nothing to lose
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Delete the file. The spill file must not be used afterwards.
+     */
+    public void delete() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        file.delete();
+    }
+}
@@ -52,6 +52,16 @@ public class StringAggregator implements Aggregator {
         countMap.put(groupField, cnt + 1);
     }
 
+    public int numGroups() {
+        return countMap.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        Field groupField = null;
+        if (this.gbField != NO_GROUPING) groupField = tup.getField(this.gbField);
+        return countMap.containsKey(groupField);
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
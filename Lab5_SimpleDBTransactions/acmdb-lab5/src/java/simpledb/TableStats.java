@@ -71,7 +71,7 @@ public class TableStats {
     private int ioCostPerPage;
     private int numTuples;
     private TupleDesc td;
-    private HeapFile table;
+    private DbFile table;
     private ConcurrentHashMap<Integer, IntHistogram> intHistograms;
     private ConcurrentHashMap<Integer, StringHistogram> stringHistograms;
 
@@ -96,7 +96,7 @@ public class TableStats {
         // some code goes here
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.table = Database.getCatalog().getDatabaseFile(tableid);
         this.td = table.getTupleDesc();
         this.numTuples = 0;
         this.intHistograms = new ConcurrentHashMap<>();
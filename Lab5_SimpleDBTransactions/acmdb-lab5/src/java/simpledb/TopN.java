@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY followed by LIMIT n: it returns
+ * the first n tuples of its child in the sort order. The child is read once
+ * through a heap bounded to n tuples, whose root is the last of the tuples
+ * kept, so the sort takes O(log n) per tuple and only n tuples are held in
+ * memory, instead of sorting the whole child.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int n;
+    private final TupleComparator comparator;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("n must not be negative");
+        this.child = child;
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+        this.comparator = new TupleComparator(orderbyField, asc);
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    /**
+     * @return the number of tuples this operator returns at most
+     */
+    public int getN() {
+        return this.n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        // keep the first n tuples in a heap whose root is the last of them
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, n),
+                Collections.reverseOrder(comparator));
+        while (n > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < n) {
+                heap.add(t);
+            } else if (comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        top = new ArrayList<Tuple>(heap);
+        Collections.sort(top, comparator);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        top = new ArrayList<Tuple>();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the tuples kept in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
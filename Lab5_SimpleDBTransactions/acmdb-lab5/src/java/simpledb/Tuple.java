@@ -1,10 +1,13 @@
 package simpledb;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -18,6 +21,10 @@ public class Tuple implements Serializable {
     private RecordId rid;
     private ArrayList<Field> fields;
 
+    // a copy of the serialized record the fields not read yet are decoded
+    // from, or null once every field has been decoded
+    private byte[] data = null;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -31,6 +38,65 @@ public class Tuple implements Serializable {
         this.fields = new ArrayList<Field>(Collections.nCopies(td.numFields(), null));
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a serialized record the
+     * first time they are read, so that fields a query never looks at are
+     * never decoded. Only the bytes of the record are copied into the tuple,
+     * so a tuple kept by an operator holds td.getSize() bytes of undecoded
+     * data rather than the whole page it was read from.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            the bytes holding the record, such as the data of a page
+     * @param offset
+     *            the offset of the record in data
+     * @see HeapPage
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.data = Arrays.copyOfRange(data, offset, offset + td.getSize());
+    }
+
+    /**
+     * Decode the ith field from the serialized record.
+     */
+    private static Field decodeField(TupleDesc td, byte[] data, int offset, int i) {
+        for (int j = 0; j < i; j++)
+            offset += td.getFieldType(j).getLen();
+        return decodeField(td.getFieldType(i), data, offset);
+    }
+
+    /**
+     * Decode a field of the given type serialized at the given offset.
+     */
+    static Field decodeField(Type type, byte[] data, int offset) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff));
+        }
+        try {
+            return type.parse(new DataInputStream(new ByteArrayInputStream(data, offset, type.getLen())));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Decode the fields that have not been read yet, and drop the reference
+     * to the serialized record.
+     */
+    private void decodeFields() {
+        byte[] d = this.data;
+        if (d == null) return;
+        for (int i = 0; i < this.fields.size(); i++) {
+            if (this.fields.get(i) == null)
+                this.fields.set(i, decodeField(this.td, d, 0, i));
+        }
+        this.data = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -80,7 +146,14 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.fields.get(i);
+        Field f = this.fields.get(i);
+        // read data once, it is dropped when another thread decodes all fields
+        byte[] d = this.data;
+        if (f == null && d != null) {
+            f = decodeField(this.td, d, 0, i);
+            this.fields.set(i, f);
+        }
+        return f;
     }
 
     /**
@@ -94,6 +167,7 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         // throw new UnsupportedOperationException("Implement this");
+        decodeFields();
         StringBuffer sb = new StringBuffer();
         for (int i = 0; i < this.fields.size(); i++) {
             sb.append(this.fields.get(i).toString());
@@ -111,6 +185,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        decodeFields();
         return this.fields.iterator();
     }
 
@@ -120,6 +195,7 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        decodeFields();
         this.td = td;
     }
 }
@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every integer column on
+ * every page of a HeapFile, so that a scan with a range predicate can skip
+ * the pages that cannot hold a matching tuple.
+ * <p>
+ * The summary of a page only grows while tuples are inserted into it, so it
+ * stays correct for uncommitted and aborted inserts and for deletes; it is
+ * computed again from the page contents when the page is written to disk.
+ * <p>
+ * The zone map is persisted beside the heap file, in a file with the
+ * <tt>.zm</tt> extension, when a transaction that changed it commits. A zone
+ * map file older than its heap file is ignored, since the heap file may have
+ * been written after it, and the zone map is rebuilt from the pages.
+ *
+ * @see HeapFile#iterator(TransactionId, java.util.Collection)
+ */
+public class ZoneMap {
+
+    private final File file;
+    private final TupleDesc td;
+
+    private int numPages = 0;
+    // min and max of column j of page i at i * td.numFields() + j; a page
+    // without tuples has min > max
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+    private boolean dirty = false;
+
+    /**
+     * Create an empty zone map.
+     *
+     * @param file the file the zone map is persisted in
+     * @param td the schema of the heap file
+     */
+    public ZoneMap(File file, TupleDesc td) {
+        this.file = file;
+        this.td = td;
+    }
+
+    /**
+     * Make room for the given page and the ones before it, with no tuples
+     */
+    private void ensurePage(int pageNo) {
+        if (pageNo < numPages)
+            return;
+        int n = td.numFields();
+        int capacity = mins.length / Math.max(n, 1);
+        if (pageNo >= capacity) {
+            int newCapacity = Math.max(pageNo + 1, capacity * 2);
+            mins = Arrays.copyOf(mins, newCapacity * n);
+            maxs = Arrays.copyOf(maxs, newCapacity * n);
+        }
+        Arrays.fill(mins, numPages * n, (pageNo + 1) * n, Integer.MAX_VALUE);
+        Arrays.fill(maxs, numPages * n, (pageNo + 1) * n, Integer.MIN_VALUE);
+        numPages = pageNo + 1;
+    }
+
+    /**
+     * Widen the summary of a page to include the given tuple.
+     */
+    public synchronized void addTuple(int pageNo, Tuple t) {
+        ensurePage(pageNo);
+        int base = pageNo * td.numFields();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) != Type.INT_TYPE)
+                continue;
+            int v = ((IntField) t.getField(j)).getValue();
+            if (v < mins[base + j]) {
+                mins[base + j] = v;
+                dirty = true;
+            }
+            if (v > maxs[base + j]) {
+                maxs[base + j] = v;
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Compute the summary of a page again from the tuples on it.
+     */
+    public synchronized void setPage(int pageNo, HeapPage page) {
+        ensurePage(pageNo);
+        int base = pageNo * td.numFields();
+        Arrays.fill(mins, base, base + td.numFields(), Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + td.numFields(), Integer.MIN_VALUE);
+        dirty = true;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            addTuple(pageNo, it.next());
+    }
+
+    /**
+     * Drop the summaries of the pages from the given one on, after the heap
+     * file was truncated.
+     *
+     * @param pages the number of pages left in the heap file
+     */
+    public synchronized void truncate(int pages) {
+        if (pages < numPages) {
+            numPages = pages;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns false if no tuple of the page can satisfy the predicate. Pages
+     * the zone map does not know about, predicates on columns that are not
+     * integers and LIKE predicates always return true.
+     *
+     * @param pageNo the page number
+     * @param p a predicate on a column of the heap file
+     */
+    public synchronized boolean mightMatch(int pageNo, Predicate p) {
+        int col = p.getField();
+        if (pageNo >= numPages || td.getFieldType(col) != Type.INT_TYPE
+                || !(p.getOperand() instanceof IntField))
+            return true;
+        int min = mins[pageNo * td.numFields() + col];
+        int max = maxs[pageNo * td.numFields() + col];
+        if (min > max)
+            return false;
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Read the zone map from its file, if the file is newer than the heap
+     * file and covers all its pages.
+     *
+     * @param heapFile the file of the heap file
+     * @param heapPages the number of pages of the heap file
+     * @return true if the zone map was read
+     */
+    public synchronized boolean read(File heapFile, int heapPages) {
+        if (!file.exists() || file.lastModified() <= heapFile.lastModified())
+            return false;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int pages = dis.readInt();
+            int fields = dis.readInt();
+            if (pages != heapPages || fields != td.numFields())
+                return false;
+            numPages = 0;
+            if (pages > 0)
+                ensurePage(pages - 1);
+            for (int i = 0; i < pages * fields; i++) {
+                mins[i] = dis.readInt();
+                maxs[i] = dis.readInt();
+            }
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            numPages = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Write the zone map to its file if it has changed since it was last
+     * read or written. The file is replaced atomically.
+     */
+    public synchronized void write() throws IOException {
+        if (!dirty)
+            return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            dos.writeInt(numPages);
+            dos.writeInt(td.numFields());
+            for (int i = 0; i < numPages * td.numFields(); i++) {
+                dos.writeInt(mins[i]);
+                dos.writeInt(maxs[i]);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
@@ -8,7 +8,15 @@ import junit.framework.JUnit4TestAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +184,186 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Returns tuples of rows random keys and values
+   */
+  private static ArrayList<Tuple> randomTuples(int rows, int keys) {
+    Random r = new Random(1);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(keys), r.nextInt(1000) - 500 }));
+    return tuples;
+  }
+
+  /**
+   * Reads the groups returned by op into a map from group to aggregate value
+   */
+  private static HashMap<Integer, Integer> groups(DbIterator op) throws Exception {
+    HashMap<Integer, Integer> groups = new HashMap<Integer, Integer>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      Integer old = groups.put(((IntField) t.getField(0)).getValue(),
+          ((IntField) t.getField(1)).getValue());
+      assertTrue(old == null);
+    }
+    return groups;
+  }
+
+  /**
+   * Aggregates tuples with a memory budget of memoryGroups groups, checking
+   * the result against an aggregate that fits in memory
+   */
+  private Aggregate spillAggregate(ArrayList<Tuple> tuples, Aggregator.Op aop,
+      int memoryGroups) throws Exception {
+    TupleDesc td = Utility.getTupleDesc(2);
+    Aggregate expected = new Aggregate(new TupleIterator(td, tuples), 1, 0, aop);
+    expected.open();
+    HashMap<Integer, Integer> expectedGroups = groups(expected);
+    expected.close();
+
+    Aggregate op = new Aggregate(new TupleIterator(td, tuples), 1, 0, aop,
+        memoryGroups * (td.getSize() + 48));
+    op.open();
+    assertEquals(expectedGroups, groups(op));
+    op.rewind();
+    assertEquals(expectedGroups, groups(op));
+    return op;
+  }
+
+  /**
+   * Groups that do not fit in the memory budget are spilled to partitions
+   * and aggregated partition by partition
+   */
+  @Test public void spills() throws Exception {
+    ArrayList<Tuple> tuples = randomTuples(20000, 5000);
+    for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG,
+        Aggregator.Op.COUNT, Aggregator.Op.MIN, Aggregator.Op.MAX }) {
+      Aggregate op = spillAggregate(tuples, aop, 500);
+      assertTrue(op.getSpilledPartitions() > 0);
+      assertTrue(op.getSpilledTuples() > 0);
+      assertEquals(op.getSpilledTuples() * 8, op.getSpilledBytes());
+      op.close();
+    }
+  }
+
+  /**
+   * Partitions that still do not fit after being split repeatedly are
+   * aggregated by sorting them on the group-by field
+   */
+  @Test public void sortFallback() throws Exception {
+    ArrayList<Tuple> tuples = randomTuples(5000, 2000);
+    Aggregate op = spillAggregate(tuples, Aggregator.Op.AVG, 1);
+    // the partitions of three levels of splitting
+    assertTrue(op.getSpilledPartitions() > Aggregate.SPILL_PARTITIONS * 2);
+    op.close();
+  }
+
+  static final Aggregator.Op[] ALL_OPS = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+      Aggregator.Op.AVG, Aggregator.Op.SUM, Aggregator.Op.COUNT };
+
+  /**
+   * Returns the rows of the groups of rows on their first two fields, each
+   * made of the two group by values followed by the min, max, avg, sum and
+   * count of the third field
+   */
+  private static HashSet<ArrayList<Integer>> expectedGroups(
+      ArrayList<ArrayList<Integer>> rows) {
+    HashMap<ArrayList<Integer>, ArrayList<Integer>> values =
+        new HashMap<ArrayList<Integer>, ArrayList<Integer>>();
+    for (ArrayList<Integer> row : rows) {
+      ArrayList<Integer> key = new ArrayList<Integer>(row.subList(0, 2));
+      if (!values.containsKey(key))
+        values.put(key, new ArrayList<Integer>());
+      values.get(key).add(row.get(2));
+    }
+    HashSet<ArrayList<Integer>> groups = new HashSet<ArrayList<Integer>>();
+    for (ArrayList<Integer> key : values.keySet()) {
+      int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, sum = 0;
+      for (int v : values.get(key)) {
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        sum += v;
+      }
+      int count = values.get(key).size();
+      ArrayList<Integer> group = new ArrayList<Integer>(key);
+      group.addAll(Arrays.asList(min, max, sum / count, sum, count));
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  private static HashSet<ArrayList<Integer>> rows(DbIterator op) throws Exception {
+    HashSet<ArrayList<Integer>> rows = new HashSet<ArrayList<Integer>>();
+    while (op.hasNext())
+      assertTrue(rows.add(SystemTestUtil.tupleToList(op.next())));
+    return rows;
+  }
+
+  /**
+   * Several aggregates grouped by two fields are computed in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Random r = new Random(1);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    ArrayList<ArrayList<Integer>> lists = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 5000; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(50), r.nextInt(10), r.nextInt(1000) });
+      tuples.add(t);
+      lists.add(SystemTestUtil.tupleToList(t));
+    }
+    HashSet<ArrayList<Integer>> expected = expectedGroups(lists);
+    int[] afields = { 2, 2, 2, 2, 2 };
+    int[] gfields = { 0, 1 };
+    TupleDesc td = Utility.getTupleDesc(3);
+
+    Aggregate op = new Aggregate(new TupleIterator(td, tuples), afields, gfields, ALL_OPS);
+    assertEquals(7, op.getTupleDesc().numFields());
+    op.open();
+    assertEquals(expected, rows(op));
+    op.close();
+
+    // spilled down to the partitions sorted on the first group by field
+    op = new Aggregate(new TupleIterator(td, tuples), afields, gfields, ALL_OPS, 1);
+    op.open();
+    assertEquals(expected, rows(op));
+    assertTrue(op.getSpilledPartitions() > Aggregate.SPILL_PARTITIONS * 2);
+    op.rewind();
+    assertEquals(expected, rows(op));
+    op.close();
+  }
+
+  /**
+   * A query with several aggregates and GROUP BY fields is planned as one
+   * Aggregate over a single scan
+   */
+  @Test public void planner() throws Exception {
+    String name = "t" + UUID.randomUUID().toString().replace("-", "");
+    ArrayList<ArrayList<Integer>> lists = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 2000, 20, null, lists, "c");
+    Database.getCatalog().addTable(hf, name);
+    TableStats.setTableStats(name, new TableStats(hf.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT MAX(" + name + ".c2), "
+        + name + ".c1, " + name + ".c0, MIN(" + name + ".c2), AVG(" + name + ".c2), SUM("
+        + name + ".c2), COUNT(" + name + ".c2) FROM " + name + " GROUP BY " + name + ".c0, "
+        + name + ".c1;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator agg = ((Operator) plan).getChildren()[0];
+    assertTrue(agg instanceof Aggregate);
+    assertEquals(5, ((Aggregate) agg).aggregateOps().length);
+    assertTrue(((Operator) agg).getChildren()[0] instanceof SeqScan);
+
+    HashSet<ArrayList<Integer>> expected = new HashSet<ArrayList<Integer>>();
+    for (ArrayList<Integer> g : expectedGroups(lists))
+      expected.add(new ArrayList<Integer>(Arrays.asList(g.get(3), g.get(1), g.get(0),
+          g.get(2), g.get(4), g.get(5), g.get(6))));
+    plan.open();
+    assertEquals(expected, rows(plan));
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
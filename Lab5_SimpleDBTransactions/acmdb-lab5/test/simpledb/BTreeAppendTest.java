@@ -0,0 +1,192 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeAppendTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int BATCH = 100;
+
+	@After
+	public void tearDown() throws Exception {
+		Database.reset();
+	}
+
+	private BTreeFile createEmptyBTreeFile() throws Exception {
+		File file = File.createTempFile("append", ".dat");
+		file.deleteOnExit();
+		file.delete();
+		Database.reset();
+		return BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+	}
+
+	private void insert(BTreeFile bf, List<Integer> keys) throws Exception {
+		TransactionId tid = null;
+		for (int n = 0; n < keys.size(); n++) {
+			if (n % BATCH == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			int key = keys.get(n);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { key, -key }));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * @return the leaf pages of the tree from left to right
+	 */
+	private List<BTreeLeafPage> leaves(BTreeFile bf, TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = bf.getRootPtrPage(tid, new HashMap<PageId, Page>());
+		ArrayList<BTreeLeafPage> leaves = new ArrayList<BTreeLeafPage>();
+		BTreeLeafPage leaf = bf.findLeafPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY, null);
+		while (true) {
+			leaves.add(leaf);
+			if (leaf.getRightSiblingId() == null)
+				break;
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leaf.getRightSiblingId(), Permissions.READ_ONLY);
+		}
+		return leaves;
+	}
+
+	/**
+	 * Splitting the rightmost leaf for a key above all of its keys moves a tenth of
+	 * the tuples to the new page, which receives the key
+	 */
+	@Test public void splitRightEdge() throws Exception {
+		File file = File.createTempFile("append", ".dat");
+		file.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0, 3);
+		int tableid = bf.getId();
+		TransactionId tid = new TransactionId();
+
+		BTreePageId leftPageId = new BTreePageId(tableid, 2, BTreePageId.LEAF);
+		BTreeLeafPage leftPage = BTreeUtility.createRandomLeafPage(leftPageId, 2, 0,
+				0, BTreeUtility.MAX_RAND_VALUE);
+		BTreePageId parentId = new BTreePageId(tableid, 1, BTreePageId.INTERNAL);
+		BTreeInternalPage parent = new BTreeInternalPage(parentId,
+				BTreeInternalPage.createEmptyPageData(), 0);
+		leftPage.setParentId(parentId);
+
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		dirtypages.put(leftPageId, leftPage);
+		dirtypages.put(parentId, parent);
+		BTreeLeafPage page = bf.splitLeafPage(tid, dirtypages, leftPage, new IntField(BTreeUtility.MAX_RAND_VALUE));
+
+		int tuplesPerPage = BTreeUtility.getNumTuplesPerPage(2);
+		assertEquals(leftPageId, page.getLeftSiblingId());
+		assertNull(page.getRightSiblingId());
+		assertEquals(tuplesPerPage / 10, page.getNumTuples());
+		assertEquals(tuplesPerPage - tuplesPerPage / 10, leftPage.getNumTuples());
+		assertEquals(1, parent.getNumEntries());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Loading keys in increasing order fills every leaf but the last to 90%, and
+	 * the tree reads back in order
+	 */
+	@Test public void sequentialLoad() throws Exception {
+		BTreeFile bf = createEmptyBTreeFile();
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i++)
+			keys.add(i);
+		insert(bf, keys);
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		List<BTreeLeafPage> leaves = leaves(bf, tid);
+		int tuplesPerPage = BTreeUtility.getNumTuplesPerPage(2);
+		for (int i = 0; i < leaves.size() - 1; i++)
+			assertEquals(tuplesPerPage - tuplesPerPage / 10, leaves.get(i).getNumTuples());
+
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int expected = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(0));
+			expected++;
+		}
+		it.close();
+		assertEquals(ROWS, expected);
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the same keys in random order leave the leaves between half and fully full
+		BTreeFile shuffled = createEmptyBTreeFile();
+		Collections.shuffle(keys, new Random(7));
+		insert(shuffled, keys);
+		tid = new TransactionId();
+		assertTrue(leaves.size() < leaves(shuffled, tid).size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Keys below the rightmost leaf still go through the root after appends
+	 */
+	@Test public void appendThenInsertBelow() throws Exception {
+		BTreeFile bf = createEmptyBTreeFile();
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i += 2)
+			keys.add(i);
+		for (int i = 1; i < ROWS; i += 2)
+			keys.add(i);
+		insert(bf, keys);
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int expected = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(0));
+			expected++;
+		}
+		it.close();
+		assertEquals(ROWS, expected);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * An insert below the rightmost leaf neither locks nor dirties it, so that
+	 * it does not block appends by other transactions
+	 */
+	@Test public void insertBelowDoesNotLockRightmost() throws Exception {
+		BTreeFile bf = createEmptyBTreeFile();
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i += 2)
+			keys.add(i);
+		insert(bf, keys);
+
+		TransactionId tid = new TransactionId();
+		List<BTreeLeafPage> leaves = leaves(bf, tid);
+		BTreePageId rightmost = leaves.get(leaves.size() - 1).getId();
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		ArrayList<Page> dirty = bf.insertTuple(tid, BTreeUtility.getBTreeTuple(new int[] { 1, -1 }));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rightmost));
+		for (Page p : dirty)
+			assertFalse(p.getId().equals(rightmost));
+
+		bf.insertTuple(tid, BTreeUtility.getBTreeTuple(new int[] { ROWS, -ROWS }));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rightmost));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeAppendTest.class);
+	}
+}
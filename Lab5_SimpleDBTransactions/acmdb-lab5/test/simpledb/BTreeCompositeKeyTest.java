@@ -0,0 +1,125 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private static final int A_VALUES = 20;
+	private static final int B_VALUES = 50;
+
+	private BTreeFile f;
+	private TransactionId tid;
+
+	/**
+	 * Create a three column B+ tree keyed on (field 0, field 1) holding every
+	 * combination of A_VALUES x B_VALUES, inserted in random order.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File file = File.createTempFile("composite", ".dat");
+		file.deleteOnExit();
+		f = new BTreeFile(file, new int[] { 0, 1 }, Utility.getTupleDesc(3));
+		Database.getCatalog().addTable(f, UUID.randomUUID().toString());
+
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int a = 0; a < A_VALUES; a++)
+			for (int b = 0; b < B_VALUES; b++)
+				tuples.add(BTreeUtility.getBTreeTuple(new int[] { a, b, a * B_VALUES + b }));
+		Collections.shuffle(tuples, new Random(42));
+
+		tid = new TransactionId();
+		for (Tuple t : tuples)
+			Database.getBufferPool().insertTuple(tid, f.getId(), t);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private int count(IndexPredicate ipred, int a, Op bOp, int b) throws Exception {
+		DbFileIterator it = f.indexIterator(tid, ipred);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(new IntField(a), t.getField(0));
+			assertTrue(t.getField(1).compare(bOp, new IntField(b)));
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * The tree stays well formed and a full scan is in lexicographic order
+	 */
+	@Test public void sortedOnBothColumns() throws Exception {
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), true);
+
+		DbFileIterator it = f.iterator(tid);
+		it.open();
+		int expected = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(2));
+			expected++;
+		}
+		it.close();
+		assertEquals(A_VALUES * B_VALUES, expected);
+	}
+
+	/**
+	 * Equality on the leading column and on the full key
+	 */
+	@Test public void equalityPrefix() throws Exception {
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(7));
+		assertEquals(B_VALUES, count(ipred, 7, Op.GREATER_THAN_OR_EQ, 0));
+
+		ipred = new IndexPredicate(Op.EQUALS,
+				new CompositeField(new IntField(7), new IntField(10)));
+		assertEquals(1, count(ipred, 7, Op.EQUALS, 10));
+	}
+
+	/**
+	 * Equality on the leading column plus a range on the second one
+	 */
+	@Test public void equalityPlusRange() throws Exception {
+		CompositeField key = new CompositeField(new IntField(7), new IntField(10));
+		assertEquals(B_VALUES - 11, count(new IndexPredicate(Op.GREATER_THAN, key), 7, Op.GREATER_THAN, 10));
+		assertEquals(B_VALUES - 10, count(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key), 7, Op.GREATER_THAN_OR_EQ, 10));
+		assertEquals(10, count(new IndexPredicate(Op.LESS_THAN, key), 7, Op.LESS_THAN, 10));
+		assertEquals(11, count(new IndexPredicate(Op.LESS_THAN_OR_EQ, key), 7, Op.LESS_THAN_OR_EQ, 10));
+	}
+
+	/**
+	 * A plain field on a composite index ranges over the leading column
+	 */
+	@Test public void rangeOnLeadingColumn() throws Exception {
+		DbFileIterator it = f.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(3)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertTrue(it.next().getField(0).compare(Op.LESS_THAN, new IntField(3)));
+			count++;
+		}
+		it.close();
+		assertEquals(3 * B_VALUES, count);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
@@ -0,0 +1,264 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompressedKeyTest extends SimpleDbTestBase {
+	private static final int ROWS = 2000;
+	private static final int BATCH = 10;
+	private static final int PAGE_SIZE = 1024;
+
+	private TupleDesc td;
+	private ArrayList<Integer> order;
+
+	/**
+	 * Use small pages so that both trees have several levels of internal pages
+	 */
+	@Before
+	public void setUp() throws Exception {
+		BufferPool.setPageSize(PAGE_SIZE);
+		Database.reset();
+		Database.resetBufferPool(500);
+		td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+		order = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(7));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private static StringField key(int i) {
+		return new StringField(String.format("account-%06d", i), Type.STRING_LEN);
+	}
+
+	private BTreeFile createTree(boolean compressKeys) throws Exception {
+		File file = File.createTempFile("strkeys", ".dat");
+		file.deleteOnExit();
+		BTreeFile bf = new BTreeFile(file, 0, td, compressKeys);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+
+		TransactionId tid = null;
+		for (int n = 0; n < order.size(); n++) {
+			if (n % BATCH == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			Tuple t = new Tuple(td);
+			t.setField(0, key(order.get(n)));
+			t.setField(1, new IntField(order.get(n)));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		return bf;
+	}
+
+	private int depth(BTreeFile bf, TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		int depth = 1;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(
+					tid, pid, Permissions.READ_ONLY);
+			pid = p.iterator().next().getLeftChild();
+			depth++;
+		}
+		return depth;
+	}
+
+	private int count(BTreeFile bf, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertTrue(it.next().getField(0).compare(ipred.getOp(), ipred.getField()));
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * Truncated separators stored at their actual length give a shallower tree
+	 */
+	@Test public void shallowerTree() throws Exception {
+		BTreeFile plain = createTree(false);
+		BTreeFile compressed = createTree(true);
+		TransactionId tid = new TransactionId();
+		assertTrue(depth(compressed, tid) < depth(plain, tid));
+		BTreeChecker.checkRep(compressed, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Lookups on a compressed tree find the same tuples as on the keys themselves
+	 */
+	@Test public void lookups() throws Exception {
+		BTreeFile bf = createTree(true);
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < ROWS; i += 97)
+			assertEquals(1, count(bf, tid, new IndexPredicate(Op.EQUALS, key(i))));
+		assertEquals(ROWS - 1001, count(bf, tid, new IndexPredicate(Op.GREATER_THAN, key(1000))));
+		assertEquals(500, count(bf, tid, new IndexPredicate(Op.LESS_THAN, key(500))));
+		assertEquals(0, count(bf, tid, new IndexPredicate(Op.EQUALS,
+				new StringField("account-0001", Type.STRING_LEN))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private void deleteKeys(BTreeFile bf, List<Integer> keys) throws Exception {
+		TransactionId tid = null;
+		for (int n = 0; n < keys.size(); n++) {
+			if (n % BATCH == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(keys.get(n))));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private void checkRemaining(BTreeFile bf, List<Integer> remaining) throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for (int i : remaining) {
+			assertTrue(it.hasNext());
+			assertEquals(key(i), it.next().getField(0));
+		}
+		assertFalse(it.hasNext());
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Deleting most of the tuples in random order merges compressed pages
+	 * while keeping the tree well formed
+	 */
+	@Test public void randomDeletes() throws Exception {
+		BTreeFile bf = createTree(true);
+		ArrayList<Integer> deleted = new ArrayList<Integer>();
+		ArrayList<Integer> remaining = new ArrayList<Integer>();
+		for (int i : order)
+			if (i % 3 != 0)
+				deleted.add(i);
+		for (int i = 0; i < ROWS; i += 3)
+			remaining.add(i);
+		deleteKeys(bf, deleted);
+		checkRemaining(bf, remaining);
+	}
+
+	/**
+	 * Deleting a range of keys empties the left of the tree, so that compressed
+	 * pages redistribute their entries with full siblings
+	 */
+	@Test public void rangeDeletes() throws Exception {
+		BTreeFile bf = createTree(true);
+		ArrayList<Integer> deleted = new ArrayList<Integer>();
+		ArrayList<Integer> remaining = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i++) {
+			if (i < ROWS / 2)
+				deleted.add(i);
+			else
+				remaining.add(i);
+		}
+		deleteKeys(bf, deleted);
+		checkRemaining(bf, remaining);
+	}
+
+	/**
+	 * Stealing from a full compressed sibling balances the bytes of the two pages
+	 */
+	@Test public void stealFromLeftInternalPage() throws Exception {
+		File file = File.createTempFile("strkeys", ".dat");
+		file.deleteOnExit();
+		BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(file));
+		bw.write(BTreeRootPtrPage.createEmptyPageData());
+		for (int i = 0; i < 200; i++)
+			bw.write(BTreePage.createEmptyPageData());
+		bw.close();
+		BTreeFile bf = new BTreeFile(file, 0, td, true);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		int tableid = bf.getId();
+		int[] keyIds = new int[] { 0 };
+
+		BTreePageId pageId = new BTreePageId(tableid, 1, BTreePageId.INTERNAL);
+		BTreePageId siblingId = new BTreePageId(tableid, 2, BTreePageId.INTERNAL);
+		BTreePageId parentId = new BTreePageId(tableid, 3, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pageId, BTreePage.createEmptyPageData(), keyIds, true);
+		BTreeInternalPage sibling = new BTreeInternalPage(siblingId, BTreePage.createEmptyPageData(), keyIds, true);
+		BTreeInternalPage parent = new BTreeInternalPage(parentId, BTreePage.createEmptyPageData(), keyIds, true);
+
+		// a full left sibling with short keys and a page with two long keys
+		int child = 10;
+		int k = 0;
+		while (sibling.getNumEmptySlots() > 0) {
+			sibling.insertEntry(new BTreeEntry(new StringField(String.format("k%04d", k++), Type.STRING_LEN), 
+					new BTreePageId(tableid, child, BTreePageId.LEAF), 
+					new BTreePageId(tableid, child + 1, BTreePageId.LEAF)));
+			child++;
+		}
+		child++;
+		char[] padding = new char[80];
+		Arrays.fill(padding, 'x');
+		for (int i = 0; i < 2; i++) {
+			page.insertEntry(new BTreeEntry(new StringField("m" + i + new String(padding), Type.STRING_LEN), 
+					new BTreePageId(tableid, child, BTreePageId.LEAF), 
+					new BTreePageId(tableid, child + 1, BTreePageId.LEAF)));
+			child++;
+		}
+		BTreeEntry entry = new BTreeEntry(new StringField("l", Type.STRING_LEN), siblingId, pageId);
+		parent.insertEntry(entry);
+		page.setParentId(parentId);
+		sibling.setParentId(parentId);
+		assertTrue(page.isUnderfull());
+		assertFalse(sibling.canMerge(page, entry.getKey()));
+
+		int totalEntries = page.getNumEntries() + sibling.getNumEntries();
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		dirtypages.put(pageId, page);
+		dirtypages.put(siblingId, sibling);
+		dirtypages.put(parentId, parent);
+		TransactionId tid = new TransactionId();
+		bf.stealFromLeftInternalPage(tid, dirtypages, page, sibling, parent, entry);
+
+		assertEquals(totalEntries, page.getNumEntries() + sibling.getNumEntries());
+		assertFalse(page.isUnderfull());
+		assertFalse(sibling.isUnderfull());
+		int maxEntry = 4 + 1 + Type.STRING_LEN;
+		assertTrue(Math.abs(page.getUsedBytes() - sibling.getUsedBytes()) <= maxEntry);
+		Field parentKey = parent.iterator().next().getKey();
+		assertTrue(sibling.reverseIterator().next().getKey().compare(Op.LESS_THAN_OR_EQ, parentKey));
+		assertTrue(parentKey.compare(Op.LESS_THAN_OR_EQ, page.iterator().next().getKey()));
+		Database.getBufferPool().transactionComplete(tid, false);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompressedKeyTest.class);
+	}
+}
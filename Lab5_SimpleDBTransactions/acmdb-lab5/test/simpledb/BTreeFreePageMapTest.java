@@ -0,0 +1,158 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFreePageMapTest extends SimpleDbTestBase {
+	private BTreeFile bf;
+
+	/**
+	 * Create a B+ tree file with three empty pages
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File file = File.createTempFile("freepages", ".dat");
+		file.deleteOnExit();
+		file.delete();
+		Database.reset();
+		bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0, 3);
+	}
+
+	/**
+	 * Free a page on behalf of a transaction, holding the lock a merge would
+	 * hold on it and marking the pages it dirtied as the buffer pool would
+	 */
+	private void freePage(TransactionId tid, int pageNo) throws Exception {
+		Database.getBufferPool().getPage(tid, new BTreePageId(bf.getId(), pageNo, BTreePageId.LEAF),
+				Permissions.READ_WRITE);
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		bf.setEmptyPage(tid, dirtypages, pageNo);
+		for (Page p : dirtypages.values())
+			p.markDirty(true, tid);
+	}
+
+	/**
+	 * Free a page in a transaction of its own
+	 */
+	private void freePage(int pageNo) throws Exception {
+		TransactionId tid = new TransactionId();
+		freePage(tid, pageNo);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Allocate a page and lock it for writing, as getEmptyPage does
+	 */
+	private int allocatePage(TransactionId tid) throws Exception {
+		int pageNo = bf.getEmptyPageNo(tid, new HashMap<PageId, Page>());
+		Database.getBufferPool().getPage(tid, new BTreePageId(bf.getId(), pageNo, BTreePageId.LEAF),
+				Permissions.READ_WRITE);
+		return pageNo;
+	}
+
+	/**
+	 * @return whether the slot of a page is marked used in the header page on disk
+	 */
+	private boolean isUsedOnDisk(int pageNo) {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+		BTreeHeaderPage header = (BTreeHeaderPage) bf.readPage(rootPtr.getHeaderId());
+		return header.isSlotUsed(pageNo);
+	}
+
+	/**
+	 * A freed page is only handed out to other transactions after the freeing
+	 * transaction commits. Neither freeing nor allocating it locks the header
+	 * page
+	 */
+	@Test public void reuseAfterCommit() throws Exception {
+		TransactionId freeing = new TransactionId();
+		freePage(freeing, 2);
+
+		TransactionId other = new TransactionId();
+		assertTrue(allocatePage(other) != 2);
+		Database.getBufferPool().transactionComplete(other);
+
+		Database.getBufferPool().transactionComplete(freeing);
+		assertFalse(isUsedOnDisk(2));
+
+		TransactionId tid = new TransactionId();
+		assertEquals(2, allocatePage(tid));
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtr.getHeaderId()));
+		Database.getBufferPool().transactionComplete(tid);
+		assertTrue(isUsedOnDisk(2));
+	}
+
+	/**
+	 * A transaction holding the header page does not block another one from
+	 * freeing a page, and writing its copy of the header page later keeps the
+	 * slot freed by the other transaction
+	 */
+	@Test public void headerPageHeld() throws Exception {
+		freePage(3);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+		TransactionId holder = new TransactionId();
+		Page header = Database.getBufferPool().getPage(holder, rootPtr.getHeaderId(), Permissions.READ_WRITE);
+		header.markDirty(true, holder);
+
+		freePage(2);
+		assertFalse(isUsedOnDisk(2));
+		Database.getBufferPool().transactionComplete(holder);
+		assertFalse(isUsedOnDisk(2));
+		assertFalse(isUsedOnDisk(3));
+	}
+
+	/**
+	 * A page allocated by an aborted transaction goes back to the free page map,
+	 * and a page freed by an aborted transaction stays in use
+	 */
+	@Test public void abort() throws Exception {
+		freePage(2);
+
+		TransactionId tid = new TransactionId();
+		assertEquals(2, allocatePage(tid));
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertFalse(isUsedOnDisk(2));
+
+		tid = new TransactionId();
+		freePage(tid, 3);
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertTrue(isUsedOnDisk(3));
+
+		tid = new TransactionId();
+		assertEquals(2, allocatePage(tid));
+		assertTrue(allocatePage(tid) > 3);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The free page map of a reopened file is read back from its header pages
+	 */
+	@Test public void reopen() throws Exception {
+		freePage(3);
+		freePage(2);
+
+		File file = bf.getFile();
+		Database.reset();
+		bf = BTreeUtility.openBTreeFile(2, file, 0);
+		TransactionId tid = new TransactionId();
+		assertEquals(2, allocatePage(tid));
+		assertEquals(3, allocatePage(tid));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeFreePageMapTest.class);
+	}
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageFileTest extends SimpleDbTestBase {
+
+    private static byte[] roundTrip(byte[] data) throws Exception {
+        byte[] compressed = new byte[data.length + data.length / 32 + 1];
+        int len = PageCompressor.compress(data, data.length, compressed);
+        assertTrue(len > 0);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length, PageCompressor.decompress(compressed, len, out));
+        assertArrayEquals(data, out);
+        return Arrays.copyOf(compressed, len);
+    }
+
+    /**
+     * Empty, repetitive and random data decompresses to what was compressed
+     */
+    @Test public void compressor() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        assertTrue(roundTrip(new byte[pageSize]).length < 64);
+
+        byte[] data = new byte[pageSize];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 12 == 3 ? i / 12 : 0);
+        assertTrue(roundTrip(data).length < pageSize / 2);
+
+        Random r = new Random(1);
+        r.nextBytes(data);
+        roundTrip(data);
+        for (int i = 0; i < data.length; i += 1 + r.nextInt(40))
+            Arrays.fill(data, i, Math.min(data.length, i + r.nextInt(300)), (byte) r.nextInt(3));
+        roundTrip(data);
+
+        // random data does not fit in less than its own size
+        r.nextBytes(data);
+        assertEquals(-1, PageCompressor.compress(data, data.length, new byte[data.length - 1]));
+    }
+
+    /**
+     * A heap file converted to a compressed one holds the same tuples in
+     * fewer bytes
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File raw = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 100, null, tuples);
+        File compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        CompressedPageFile.compress(raw, compressed);
+        assertTrue(compressed.length() < raw.length() * 3 / 4);
+
+        HeapFile hf = new HeapFile(compressed, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(raw.length() / BufferPool.getPageSize(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages written through the buffer pool are read back after the file is
+     * opened again, and a torn block at the end of the file is dropped
+     */
+    @Test public void writeAndReopen() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 1200; i++) {
+            batch.add(Utility.getHeapTuple(new int[] { i, i % 7 }));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, hf.numPages());
+
+        // a torn block: a header whose data is cut off
+        long length = f.length();
+        FileOutputStream fos = new FileOutputStream(f, true);
+        fos.write(new byte[] { 0, 0, 0, 1, 0, 0, 1, 0, 1, 42 });
+        fos.close();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(3, reopened.numPages());
+        assertEquals(length, f.length());
+        SystemTestUtil.matchTuples(reopened, tuples);
+
+        // a rewritten page appends its new version
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.length() > length);
+        tuples.remove(0);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageFileTest.class);
+    }
+}
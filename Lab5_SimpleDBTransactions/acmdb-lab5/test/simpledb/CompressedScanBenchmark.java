@@ -0,0 +1,77 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares scans of a raw heap file with scans of the same table stored
+ * compressed. Two tables are measured: random integers, and an archive-like
+ * table of (timestamp, user id, event name) rows. Pages are read with
+ * readPage directly, bypassing the buffer pool, and every field is read so
+ * that the tuples are decoded. The files are small enough to stay in the OS
+ * page cache after the warm-up round, so the numbers are the CPU cost of
+ * decompression; on a cold table the saved I/O is given by the file sizes.
+ * <p>
+ * Run with <tt>java -cp bin/src:bin/test:lib/* simpledb.CompressedScanBenchmark [rows]</tt>
+ */
+public class CompressedScanBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static long scan(HeapFile hf) {
+        long sum = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int j = 0; j < t.getTupleDesc().numFields(); j++)
+                    sum += t.getField(j).hashCode();
+            }
+        }
+        return sum;
+    }
+
+    private static void measure(String name, File raw, TupleDesc td) throws Exception {
+        File compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        CompressedPageFile.compress(raw, compressed);
+        System.out.printf("%s: raw %d KB, compressed %d KB (%.0f%%)%n", name, raw.length() / 1024,
+                compressed.length() / 1024, 100.0 * compressed.length() / raw.length());
+
+        for (boolean c : new boolean[] { false, true }) {
+            HeapFile hf = new HeapFile(c ? compressed : raw, td, HeapFile.PageFormat.FIXED, c);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            scan(hf); // warm up the OS page cache and the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++)
+                scan(hf);
+            double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+            System.out.printf("  %-10s %8.1f ms/scan %8.1f MB/s of pages%n", c ? "compressed" : "raw", ms,
+                    hf.numPages() * (double) BufferPool.getPageSize() / 1e6 / (ms / 1e3));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        File ints = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1 << 16, null, null);
+        measure("random ints", ints, Utility.getTupleDesc(2));
+
+        String[] events = { "login", "logout", "view", "click", "purchase", "search" };
+        File csv = File.createTempFile("events", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(1);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(csv));
+        for (int i = 0; i < rows; i++)
+            bw.write((1500000000 + i * 3) + "," + r.nextInt(10000) + "," + events[r.nextInt(events.length)] + "\n");
+        bw.close();
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+        File archive = File.createTempFile("archive", ".dat");
+        archive.deleteOnExit();
+        HeapFileEncoder.convert(csv, archive, BufferPool.getPageSize(), 3, types);
+        measure("archive events", archive, new TupleDesc(types));
+
+        DbFileChannel.closeAll();
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.EOFException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+    private File file;
+    private DbFileChannel channel;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    private static byte[] filled(int len, int value) {
+        byte[] data = new byte[len];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Positional writes land at their offset and read back, in any order
+     */
+    @Test public void readWrite() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        channel.write(2L * pageSize, filled(pageSize, 3));
+        channel.write(0, filled(pageSize, 1));
+        channel.append(filled(pageSize, 4));
+        assertEquals(4L * pageSize, file.length());
+
+        byte[] data = new byte[pageSize];
+        channel.readFully(2L * pageSize, data);
+        assertArrayEquals(filled(pageSize, 3), data);
+        channel.readFully(pageSize, data);
+        assertArrayEquals(filled(pageSize, 0), data);
+        channel.readFully(3L * pageSize, data);
+        assertArrayEquals(filled(pageSize, 4), data);
+    }
+
+    /**
+     * A read past the end of the file returns the bytes that are there
+     */
+    @Test public void readPastEnd() throws Exception {
+        channel.write(0, filled(10, 7));
+        byte[] data = new byte[20];
+        assertEquals(10, channel.read(0, data));
+        assertEquals(0, channel.read(10, data));
+        try {
+            channel.readFully(0, data);
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A closed channel opens its file again, and reads are counted
+     */
+    @Test public void reopenAndCount() throws Exception {
+        channel.write(0, filled(10, 7));
+        DbFileChannel.closeAll();
+        DbFileChannel.resetStats();
+
+        byte[] data = new byte[10];
+        channel.readFully(0, data);
+        channel.readFully(0, data);
+        assertArrayEquals(filled(10, 7), data);
+        assertEquals(2, DbFileChannel.getPageReads());
+        assertTrue(DbFileChannel.getPageReadNanos() > 0);
+        channel.close();
+    }
+
+    /**
+     * Mapped reads see writes made through the channel, and pages appended
+     * after the file was mapped
+     */
+    @Test public void memoryMapped() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        channel.write(0, filled(pageSize, 1));
+        channel.setMemoryMapped(true);
+        assertTrue(channel.isMemoryMapped());
+
+        byte[] data = new byte[pageSize];
+        channel.readFully(0, data);
+        assertArrayEquals(filled(pageSize, 1), data);
+
+        channel.write(0, filled(pageSize, 2));
+        channel.append(filled(pageSize, 3));
+        channel.readFully(0, data);
+        assertArrayEquals(filled(pageSize, 2), data);
+        channel.readFully(pageSize, data);
+        assertArrayEquals(filled(pageSize, 3), data);
+        assertEquals(0, channel.read(2L * pageSize, data));
+
+        channel.setMemoryMapped(false);
+        channel.readFully(pageSize, data);
+        assertArrayEquals(filled(pageSize, 3), data);
+        channel.close();
+    }
+
+    /**
+     * A memory-mapped heap file scans the same tuples
+     */
+    @Test public void memoryMappedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        table.setMemoryMapped(true);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -9,7 +9,10 @@ import org.junit.Before;
 import org.junit.Test;
 import java.util.ArrayList;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Random;
 
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -130,6 +133,180 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /**
+   * Unit test for HashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * The first joined tuple is returned after reading only the outer tuples
+   * up to the first one that matches, and the outer relation is not kept
+   */
+  @Test public void streamsOuter() throws Exception {
+    final int[] read = new int[1];
+    ArrayList<Tuple> outer = new ArrayList<Tuple>();
+    for (int i = 0; i < 10000; i++)
+      outer.add(Utility.getHeapTuple(new int[] { i % 100, i }));
+    DbIterator scan = new TupleIterator(Utility.getTupleDesc(2), outer) {
+      private static final long serialVersionUID = 1L;
+      public Tuple next() {
+        read[0]++;
+        return super.next();
+      }
+    };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan, scan2);
+    op.open();
+    Tuple t = op.next();
+    assertEquals(new IntField(1), t.getField(0));
+    assertEquals(2, read[0]);
+
+    int count = 1;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    // keys 1 to 5 of the inner relation each match 100 outer tuples
+    assertEquals(500, count);
+    assertEquals(10000, read[0]);
+  }
+
+  private static ArrayList<Tuple> randomTuples(int rows, int keys, long seed) {
+    Random r = new Random(seed);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(keys), i }));
+    return tuples;
+  }
+
+  /**
+   * Joins the tuples with a HashEquiJoin whose hash table holds at most
+   * memoryTuples inner tuples, and checks the result against a nested loops
+   * join of the same tuples
+   */
+  private HashEquiJoin spillJoin(ArrayList<Tuple> outer, ArrayList<Tuple> inner, int memoryTuples)
+      throws Exception {
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (Tuple t1 : outer) {
+      for (Tuple t2 : inner) {
+        if (t1.getField(0).equals(t2.getField(0))) {
+          ArrayList<Integer> row = SystemTestUtil.tupleToList(t1);
+          row.addAll(SystemTestUtil.tupleToList(t2));
+          expected.add(row);
+        }
+      }
+    }
+    TupleDesc td = Utility.getTupleDesc(2);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, new TupleIterator(td, outer), new TupleIterator(td, inner),
+        (long) memoryTuples * td.getSize());
+    SystemTestUtil.matchTuples(op, expected);
+    return op;
+  }
+
+  /**
+   * A join whose inner relation does not fit in the memory budget spills
+   * partitions, splits them again, and returns the same tuples
+   */
+  @Test public void spills() throws Exception {
+    ArrayList<Tuple> outer = randomTuples(3000, 1000, 1);
+    ArrayList<Tuple> inner = randomTuples(5000, 1000, 2);
+
+    HashEquiJoin op = spillJoin(outer, inner, 100);
+    assertTrue(op.getSpilledPartitions() > HashEquiJoin.SPILL_PARTITIONS);
+    assertTrue(op.getSpilledTuples() > inner.size());
+    assertEquals(op.getSpilledTuples() * Utility.getTupleDesc(2).getSize(), op.getSpilledBytes());
+
+    // the same join within the budget does not spill
+    op = spillJoin(outer, inner, 10000);
+    assertEquals(0, op.getSpilledPartitions());
+    assertEquals(0, op.getSpilledTuples());
+  }
+
+  /**
+   * Partitions that cannot be split because all their tuples have the same
+   * join value are still joined
+   */
+  @Test public void spillsDuplicateKeys() throws Exception {
+    ArrayList<Tuple> outer = randomTuples(200, 3, 3);
+    ArrayList<Tuple> inner = randomTuples(300, 3, 4);
+    HashEquiJoin op = spillJoin(outer, inner, 10);
+    assertTrue(op.getSpilledPartitions() > 0);
+  }
+
+  private static ArrayList<ArrayList<Integer>> sortedRows(DbIterator op, int limit) throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    while (rows.size() < limit && op.hasNext())
+      rows.add(SystemTestUtil.tupleToList(op.next()));
+    Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+      public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+        for (int i = 0; i < a.size(); i++) {
+          int c = a.get(i).compareTo(b.get(i));
+          if (c != 0) return c;
+        }
+        return 0;
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * A join rewound while it is reading the outer relation, with the first
+   * partition in memory and the others spilled, returns each tuple once
+   */
+  @Test public void rewindWhileSpilling() throws Exception {
+    ArrayList<Tuple> outer = randomTuples(3000, 1000, 1);
+    ArrayList<Tuple> inner = randomTuples(5000, 1000, 2);
+    TupleDesc td = Utility.getTupleDesc(2);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    HashEquiJoin op = new HashEquiJoin(pred, new TupleIterator(td, outer), new TupleIterator(td, inner));
+    op.open();
+    ArrayList<ArrayList<Integer>> expected = sortedRows(op, Integer.MAX_VALUE);
+    op.close();
+
+    op = new HashEquiJoin(pred, new TupleIterator(td, outer), new TupleIterator(td, inner),
+        400L * td.getSize());
+    op.open();
+    assertEquals(expected, sortedRows(op, Integer.MAX_VALUE));
+    long spilled = op.getSpilledTuples();
+    int partitions = op.getSpilledPartitions();
+    assertTrue(partitions > 0);
+    op.close();
+
+    op.open();
+    // rows of the partition kept in memory come while the outer is read
+    assertEquals(100, sortedRows(op, 100).size());
+    op.rewind();
+    assertEquals(expected, sortedRows(op, Integer.MAX_VALUE));
+    assertEquals(spilled, op.getSpilledTuples());
+    assertEquals(partitions, op.getSpilledPartitions());
+
+    op.rewind();
+    assertEquals(expected, sortedRows(op, Integer.MAX_VALUE));
+    assertEquals(spilled, op.getSpilledTuples());
+    op.close();
+  }
+
+  /**
+   * HashEquiJoin only joins on equality
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
   /**
    * JUnit suite target
    */
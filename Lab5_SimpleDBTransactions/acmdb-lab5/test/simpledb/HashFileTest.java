@@ -0,0 +1,260 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 2000;
+	private static final int BATCH = 100;
+
+	private int reads = 0;
+
+	/**
+	 * Create an empty hash file keyed on field 0 of two int columns, counting
+	 * the pages read from disk
+	 */
+	private HashFile createHashFile() throws Exception {
+		File file = File.createTempFile("hash", ".dat");
+		file.deleteOnExit();
+		HashFile hf = new HashFile(file, 0, Utility.getTupleDesc(2)) {
+			public Page readPage(PageId pid) {
+				reads++;
+				return super.readPage(pid);
+			}
+		};
+		Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+		return hf;
+	}
+
+	private void insert(int tableid, List<int[]> rows) throws Exception {
+		TransactionId tid = null;
+		for (int n = 0; n < rows.size(); n++) {
+			if (n % BATCH == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			Database.getBufferPool().insertTuple(tid, tableid, Utility.getHeapTuple(rows.get(n)));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private List<Tuple> lookup(HashFile hf, TransactionId tid, int key) throws Exception {
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		while (it.hasNext())
+			result.add(it.next());
+		it.close();
+		return result;
+	}
+
+	private int count(DbFileIterator it) throws Exception {
+		int count = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	private List<int[]> distinctRows() {
+		ArrayList<int[]> rows = new ArrayList<int[]>();
+		for (int i = 0; i < ROWS; i++)
+			rows.add(new int[] { i, i * 10 });
+		Collections.shuffle(rows, new Random(11));
+		return rows;
+	}
+
+	/**
+	 * Every key is found in its bucket after the directory has grown
+	 */
+	@Test public void lookups() throws Exception {
+		HashFile hf = createHashFile();
+		insert(hf.getId(), distinctRows());
+
+		TransactionId tid = new TransactionId();
+		HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(
+				tid, HashDirectoryPage.getId(hf.getId()), Permissions.READ_ONLY);
+		assertTrue(dir.getGlobalDepth() > 0);
+		for (int i = 0; i < ROWS; i += 37) {
+			List<Tuple> found = lookup(hf, tid, i);
+			assertEquals(1, found.size());
+			assertEquals(new IntField(i * 10), found.get(0).getField(1));
+		}
+		assertEquals(0, lookup(hf, tid, ROWS).size());
+		assertEquals(ROWS, count(hf.iterator(tid)));
+		assertEquals(ROWS - 1001, count(hf.indexIterator(tid,
+				new IndexPredicate(Op.GREATER_THAN, new IntField(1000)))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * With the directory cached, a lookup only reads the bucket of its key
+	 */
+	@Test public void oneReadPerLookup() throws Exception {
+		HashFile hf = createHashFile();
+		insert(hf.getId(), distinctRows());
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+		TransactionId tid = new TransactionId();
+		reads = 0;
+		assertEquals(1, lookup(hf, tid, 7).size());
+		assertEquals(2, reads);
+		for (int i = 100; i < 110; i++) {
+			reads = 0;
+			assertEquals(1, lookup(hf, tid, i).size());
+			assertTrue(reads <= 1);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Duplicate keys cannot be split apart and go to overflow pages
+	 */
+	@Test public void duplicateKeys() throws Exception {
+		HashFile hf = createHashFile();
+		ArrayList<int[]> rows = new ArrayList<int[]>();
+		for (int i = 0; i < 1500; i++)
+			rows.add(new int[] { 5, i });
+		for (int i = 0; i < 50; i++)
+			rows.add(new int[] { 1000 + i, i });
+		insert(hf.getId(), rows);
+
+		TransactionId tid = new TransactionId();
+		assertEquals(1500, lookup(hf, tid, 5).size());
+		for (int i = 0; i < 50; i++)
+			assertEquals(1, lookup(hf, tid, 1000 + i).size());
+		assertEquals(1550, count(hf.iterator(tid)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Deleted tuples are no longer found
+	 */
+	@Test public void deletes() throws Exception {
+		HashFile hf = createHashFile();
+		insert(hf.getId(), distinctRows());
+
+		TransactionId tid = null;
+		for (int i = 0; i < ROWS; i += 2) {
+			if (i % BATCH == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			Database.getBufferPool().deleteTuple(tid, lookup(hf, tid, i).get(0));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		for (int i = 0; i < 200; i++)
+			assertEquals(i % 2, lookup(hf, tid, i).size());
+		assertEquals(ROWS / 2, count(hf.iterator(tid)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A secondary index finds the heap file tuples holding a key
+	 */
+	@Test public void secondaryIndex() throws Exception {
+		File heap = File.createTempFile("heap", ".dat");
+		heap.deleteOnExit();
+		HeapFile table = Utility.createEmptyHeapFile(heap.getAbsolutePath(), 2);
+		ArrayList<int[]> rows = new ArrayList<int[]>();
+		for (int i = 0; i < 600; i++)
+			rows.add(new int[] { i, i % 100 });
+		insert(table.getId(), rows);
+
+		File file = File.createTempFile("index", ".dat");
+		file.deleteOnExit();
+		SecondaryHashFile index = new SecondaryHashFile(file, table.getId(), 1);
+		Database.getCatalog().addTable(index, UUID.randomUUID().toString());
+		TransactionId tid = new TransactionId();
+		index.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		DbFileIterator it = index.lookup(tid, new IntField(42));
+		it.open();
+		Tuple victim = null;
+		int count = 0;
+		while (it.hasNext()) {
+			victim = it.next();
+			assertEquals(new IntField(42), victim.getField(1));
+			assertEquals(42, ((IntField) victim.getField(0)).getValue() % 100);
+			count++;
+		}
+		it.close();
+		assertEquals(6, count);
+
+		index.deleteEntry(tid, victim);
+		Database.getBufferPool().deleteTuple(tid, victim);
+		assertEquals(5, count(index.lookup(tid, new IntField(42))));
+		assertEquals(0, count(index.lookup(tid, new IntField(100))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * An insert that does not split a bucket does not keep the directory
+	 * locked, so another transaction can split buckets while it is running
+	 */
+	@Test public void splitWhileInserting() throws Exception {
+		final HashFile hf = createHashFile();
+		insert(hf.getId(), distinctRows());
+
+		// the transactions insert keys of different buckets: every bucket has
+		// split at least once, so the lowest bit of the hash tells them apart
+		TransactionId tid = new TransactionId();
+		int key = ROWS;
+		while ((HashFile.hash(new IntField(key)) & 1) != 0)
+			key++;
+		Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { key, 0 }));
+		assertFalse(Database.getBufferPool().holdsLock(tid, HashDirectoryPage.getId(hf.getId())));
+
+		final ArrayList<int[]> rows = new ArrayList<int[]>();
+		for (int k = ROWS + 1; rows.size() < ROWS; k++) {
+			if ((HashFile.hash(new IntField(k)) & 1) != 0)
+				rows.add(new int[] { k, 0 });
+		}
+		final Exception[] error = new Exception[1];
+		Thread splitter = new Thread() {
+			public void run() {
+				try {
+					TransactionId other = new TransactionId();
+					for (int[] row : rows)
+						Database.getBufferPool().insertTuple(other, hf.getId(), Utility.getHeapTuple(row));
+					Database.getBufferPool().transactionComplete(other);
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		splitter.start();
+		splitter.join(30000);
+		assertFalse(splitter.isAlive());
+		assertNull(error[0]);
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		assertEquals(2 * ROWS + 1, count(hf.iterator(tid)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
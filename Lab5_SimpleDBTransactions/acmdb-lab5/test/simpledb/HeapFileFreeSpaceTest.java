@@ -0,0 +1,119 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileFreeSpaceTest extends SimpleDbTestBase {
+    private static final int TUPLES_PER_PAGE =
+            (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+
+    private HeapFile hf;
+
+    private void createHeapFile(int rows) throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+    }
+
+    private PageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private void insert(TransactionId tid) throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+    }
+
+    /**
+     * Delete the first tuple of a page and commit
+     */
+    private void deleteFrom(int pageNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid(pageNo), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An insert goes straight to the page with room, without locking full pages
+     */
+    @Test public void skipsFullPages() throws Exception {
+        createHeapFile(3 * TUPLES_PER_PAGE + 10);
+        TransactionId tid = new TransactionId();
+        insert(tid);
+        for (int i = 0; i < 3; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, pid(i)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid(3)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, hf.numPages());
+    }
+
+    /**
+     * A slot freed by a delete is reused instead of growing the file
+     */
+    @Test public void reusesDeletedSlots() throws Exception {
+        createHeapFile(3 * TUPLES_PER_PAGE);
+        TransactionId tid = new TransactionId();
+        insert(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, hf.numPages());
+
+        deleteFrom(1);
+        tid = new TransactionId();
+        insert(tid);
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid(1)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, hf.numPages());
+    }
+
+    /**
+     * A page filled by an aborted transaction has room again
+     */
+    @Test public void abort() throws Exception {
+        createHeapFile(3 * TUPLES_PER_PAGE - 1);
+        TransactionId tid = new TransactionId();
+        insert(tid);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        insert(tid);
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid(2)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * Concurrent inserters are spread over the pages with room
+     */
+    @Test public void spreadsInserters() throws Exception {
+        createHeapFile(4 * TUPLES_PER_PAGE);
+        for (int i = 0; i < 4; i++)
+            deleteFrom(i);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        insert(t1);
+        insert(t2);
+        int locked1 = -1, locked2 = -1;
+        for (int i = 0; i < 4; i++) {
+            if (Database.getBufferPool().holdsLock(t1, pid(i))) locked1 = i;
+            if (Database.getBufferPool().holdsLock(t2, pid(i))) locked2 = i;
+        }
+        assertTrue(locked1 >= 0 && locked2 >= 0);
+        assertTrue(locked1 != locked2);
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+        assertEquals(4, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileFreeSpaceTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,26 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples()
+     */
+    @Test public void addTuples() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1010; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+
+        // the first two pages are filled up before the third is used
+        ArrayList<Page> pages = empty.insertTuples(tid, tuples);
+        assertEquals(3, pages.size());
+        assertEquals(3, empty.numPages());
+        int emptySlots = 0;
+        for (Page p : pages)
+            emptySlots += ((HeapPage) p).getNumEmptySlots();
+        assertEquals(3 * 504 - 1010, emptySlots);
+        for (Tuple t : tuples)
+            assertNotNull(t.getRecordId());
+    }
+
     /**
      * JUnit suite target
      */
@@ -10,6 +10,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -99,6 +100,45 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples and fields are decoded as they are read, and the page data of a
+     * page whose tuples were only partly read is unchanged
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(row, tup.getRecordId().tupleno());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            if (row == 2)
+                assertEquals(EXAMPLE_VALUES[row][0] + "\t" + EXAMPLE_VALUES[row][1], tup.toString());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        page.iterator().next().setField(0, new IntField(7));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple tup = copy.iterator().next();
+        assertEquals(7, ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) tup.getField(1)).getValue());
+    }
+
+    /**
+     * A tuple whose fields have not been decoded keeps a copy of its record,
+     * not the data of its page
+     */
+    @Test public void recordCopied() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple tup = page.iterator().next();
+        Arrays.fill(data, (byte) 0);
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) tup.getField(1)).getValue());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
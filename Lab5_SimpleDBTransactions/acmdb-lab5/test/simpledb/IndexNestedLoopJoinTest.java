@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.Vector;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private static final int MAX_VALUE = 2000;
+  TupleDesc td = Utility.getTupleDesc(2);
+  BTreeFile index;
+  String indexName;
+  ArrayList<ArrayList<Integer>> indexTuples = new ArrayList<ArrayList<Integer>>();
+  ArrayList<Tuple> outer;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTables() throws Exception {
+    index = BTreeUtility.createRandomBTreeFile(2, 5000, MAX_VALUE, null, indexTuples, 0);
+    indexName = UUID.randomUUID().toString();
+    Database.getCatalog().addTable(index, indexName);
+    Random r = new Random(1);
+    outer = new ArrayList<Tuple>();
+    for (int i = 0; i < 60; i++)
+      outer.add(Utility.getHeapTuple(new int[] { r.nextInt(MAX_VALUE / 10), i }));
+  }
+
+  /**
+   * Checks an IndexNestedLoopJoin against a nested loops join of the outer
+   * tuples with the indexed table, whose tuples must satisfy filter if it is
+   * not null
+   */
+  private IndexNestedLoopJoin checkJoin(Predicate.Op op, Predicate filter) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (Tuple t1 : outer) {
+      for (ArrayList<Integer> row2 : indexTuples) {
+        Tuple t2 = Utility.getHeapTuple(new int[] { row2.get(0), row2.get(1) });
+        if (pred.filter(t1, t2) && (filter == null || filter.filter(t2))) {
+          ArrayList<Integer> row = SystemTestUtil.tupleToList(t1);
+          row.addAll(row2);
+          expected.add(row);
+        }
+      }
+    }
+    assertTrue(!expected.isEmpty());
+
+    TransactionId tid = new TransactionId();
+    DbIterator inner = new SeqScan(tid, index.getId(), "b");
+    if (filter != null)
+      inner = new Filter(filter, inner);
+    IndexNestedLoopJoin join = new IndexNestedLoopJoin(pred, new TupleIterator(td, outer), inner);
+    SystemTestUtil.matchTuples(join, expected);
+    Database.getBufferPool().transactionComplete(tid);
+    return join;
+  }
+
+  /**
+   * An equality join probes the index once per distinct outer value
+   */
+  @Test public void equals() throws Exception {
+    IndexNestedLoopJoin join = checkJoin(Predicate.Op.EQUALS, null);
+    HashSet<Field> values = new HashSet<Field>();
+    for (Tuple t : outer)
+      values.add(t.getField(0));
+    assertEquals(values.size(), join.getProbes());
+  }
+
+  /**
+   * Range joins probe the index with the swapped operator
+   */
+  @Test public void ranges() throws Exception {
+    // keep the outer values near the ends of the key range, so that each
+    // probe matches a few dozen tuples
+    outer.clear();
+    for (int i = 0; i < 10; i++)
+      outer.add(Utility.getHeapTuple(new int[] { MAX_VALUE - 5 * i, i }));
+    checkJoin(Predicate.Op.LESS_THAN, null);
+    outer.clear();
+    for (int i = 0; i < 10; i++)
+      outer.add(Utility.getHeapTuple(new int[] { 5 * i, i }));
+    checkJoin(Predicate.Op.GREATER_THAN_OR_EQ, null);
+  }
+
+  /**
+   * Filters over the indexed table are applied to the probed tuples
+   */
+  @Test public void filtered() throws Exception {
+    checkJoin(Predicate.Op.EQUALS, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)));
+  }
+
+  /**
+   * Only a scan of a B+ tree keyed on the inner join field can be probed
+   */
+  @Test public void canProbe() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, index.getId(), "b");
+    assertTrue(IndexNestedLoopJoin.canProbe(Predicate.Op.EQUALS, scan, 0));
+    assertTrue(!IndexNestedLoopJoin.canProbe(Predicate.Op.EQUALS, scan, 1));
+    assertTrue(!IndexNestedLoopJoin.canProbe(Predicate.Op.NOT_EQUALS, scan, 0));
+
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    assertTrue(!IndexNestedLoopJoin.canProbe(Predicate.Op.EQUALS, new SeqScan(tid, hf.getId(), "h"), 0));
+  }
+
+  /**
+   * The optimizer probes an index on the inner join field, and estimates a
+   * selective join against it to be cheaper than a nested loops join
+   */
+  @Test public void planner() throws Exception {
+    // name the columns of both tables f0 and f1
+    HeapFile hf = Utility.openHeapFile(2, "f",
+        SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, null).getFile());
+    Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+    index = new BTreeFile(index.getFile(), 0, Utility.getTupleDesc(2, "f"));
+    Database.getCatalog().addTable(index, indexName);
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(hf.getId(), "h");
+    lp.addScan(index.getId(), "b");
+    LogicalJoinNode indexed = new LogicalJoinNode("h", "b", "h.f0", "b.f0", Predicate.Op.EQUALS);
+    LogicalJoinNode heap = new LogicalJoinNode("b", "h", "b.f0", "h.f0", Predicate.Op.EQUALS);
+
+    // the index is probed only if the optimizer costed the join that way
+    DbIterator j = JoinOptimizer.instantiateJoin(indexed, new SeqScan(tid, hf.getId(), "h"),
+        new SeqScan(tid, index.getId(), "b"));
+    assertTrue(j instanceof Join);
+    indexed.indexProbe = true;
+    j = JoinOptimizer.instantiateJoin(indexed, new SeqScan(tid, hf.getId(), "h"),
+        new SeqScan(tid, index.getId(), "b"));
+    assertTrue(j instanceof IndexNestedLoopJoin);
+    j = JoinOptimizer.instantiateJoin(heap, new SeqScan(tid, index.getId(), "b"),
+        new SeqScan(tid, hf.getId(), "h"));
+    assertTrue(j instanceof Join);
+
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    double scanCost = 1000.0 * index.numPages();
+    assertTrue(jo.estimateJoinCost(indexed, 10, 5000, 1000, scanCost)
+        < jo.estimateJoinCost(heap, 10, 5000, 1000, scanCost));
+    // when reading a page costs far more than comparing tuples, probing the
+    // index once per outer tuple costs more than a block nested loops join,
+    // which estimateJoinCost then returns
+    LogicalJoinNode nonKey = new LogicalJoinNode("h", "b", "h.f0", "b.f1", Predicate.Op.EQUALS);
+    scanCost = 100000.0 * index.numPages();
+    assertEquals(jo.estimateJoinCost(nonKey, 5000, 5000, scanCost, scanCost),
+        jo.estimateJoinCost(indexed, 5000, 5000, scanCost, scanCost), 1e-6);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer marks a selective join against the index to be run as an
+   * index nested loops join, and not a join of two tables whose pages are
+   * expensive to read
+   */
+  @Test public void orderJoins() throws Exception {
+    HeapFile hf = Utility.openHeapFile(2, "f",
+        SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, null).getFile());
+    String hfName = UUID.randomUUID().toString();
+    Database.getCatalog().addTable(hf, hfName);
+    index = new BTreeFile(index.getFile(), 0, Utility.getTupleDesc(2, "f"));
+    Database.getCatalog().addTable(index, indexName);
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(hfName, new TableStats(hf.getId(), 1000));
+    stats.put(indexName, new TableStats(index.getId(), 1000));
+    TableStats.setTableStats(hfName, stats.get(hfName));
+    TableStats.setTableStats(indexName, stats.get(indexName));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(hf.getId(), "h");
+    lp.addScan(index.getId(), "b");
+    Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+    joins.add(new LogicalJoinNode("h", "b", "h.f0", "b.f0", Predicate.Op.EQUALS));
+    HashMap<String, Double> selectivities = new HashMap<String, Double>();
+    selectivities.put("h", 0.001);
+    selectivities.put("b", 1.0);
+    LogicalJoinNode j = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false).get(0);
+    assertEquals("b", j.t2Alias);
+    assertTrue(j.indexProbe);
+
+    selectivities.put("h", 1.0);
+    stats.put(hfName, new TableStats(hf.getId(), 100000));
+    stats.put(indexName, new TableStats(index.getId(), 100000));
+    j = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false).get(0);
+    assertTrue(!j.indexProbe);
+    assertTrue(!joins.get(0).indexProbe);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
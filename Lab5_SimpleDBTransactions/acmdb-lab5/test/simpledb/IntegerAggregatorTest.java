@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 import junit.framework.JUnit4TestAdapter;
@@ -178,6 +179,45 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Many groups, including negative and colliding keys, are each aggregated
+   * on their own while the group table grows
+   */
+  @Test public void manyGroups() throws Exception {
+    IntegerAggregator count = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    IntegerAggregator max = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    HashMap<Integer, int[]> expected = new HashMap<Integer, int[]>();
+    for (int i = 0; i < 30000; i++) {
+      int key = (i % 5000 - 2500) * 65536;
+      Tuple t = Utility.getHeapTuple(new int[] { key, i });
+      count.mergeTupleIntoGroup(t);
+      max.mergeTupleIntoGroup(t);
+      int[] e = expected.get(key);
+      if (e == null)
+        expected.put(key, e = new int[2]);
+      e[0]++;
+      e[1] = i;
+    }
+
+    DbIterator it = count.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(expected.get(((IntField) t.getField(0)).getValue())[0],
+          ((IntField) t.getField(1)).getValue());
+      groups++;
+    }
+    assertEquals(expected.size(), groups);
+    it = max.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(expected.get(((IntField) t.getField(0)).getValue())[1],
+          ((IntField) t.getField(1)).getValue());
+    }
+  }
+
   /**
    * JUnit suite target
    */
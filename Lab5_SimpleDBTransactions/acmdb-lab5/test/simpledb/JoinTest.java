@@ -8,6 +8,8 @@ import junit.framework.JUnit4TestAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class JoinTest extends SimpleDbTestBase {
@@ -105,6 +107,46 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Joins with blocks of different sizes return the same tuples, and scan
+   * the inner relation once per block of outer tuples
+   */
+  @Test public void blocks() throws Exception {
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    scan2.open();
+    while (scan2.hasNext()) {
+      inner.add(scan2.next());
+    }
+    final int[] passes = new int[1];
+    DbIterator counted = new TupleIterator(Utility.getTupleDesc(width2), inner) {
+      private static final long serialVersionUID = 1L;
+      public void rewind() {
+        passes[0]++;
+        super.rewind();
+      }
+    };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    for (int blockSize : new int[] { 1, 3, 4, 100 }) {
+      passes[0] = 1;
+      Join op = new Join(pred, scan1, counted, blockSize);
+      op.open();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      op.close();
+      assertEquals(11, count);
+      assertEquals((4 + blockSize - 1) / blockSize, passes[0]);
+
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      gtJoin.close();
+      op.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
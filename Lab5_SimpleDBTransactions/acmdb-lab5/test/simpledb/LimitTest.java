@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  TupleDesc td = Utility.getTupleDesc(2);
+  ArrayList<Tuple> tuples;
+  int[] read;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    Random r = new Random(1);
+    tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 1000; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(10000), i }));
+    read = new int[1];
+    scan = new TupleIterator(td, tuples) {
+      private static final long serialVersionUID = 1L;
+      public Tuple next() {
+        read[0]++;
+        return super.next();
+      }
+    };
+  }
+
+  private static ArrayList<Integer> keys(DbIterator it) throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    while (it.hasNext())
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    return keys;
+  }
+
+  private ArrayList<Integer> sortedKeys(boolean asc) {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Tuple t : tuples)
+      keys.add(((IntField) t.getField(0)).getValue());
+    Collections.sort(keys);
+    if (!asc)
+      Collections.reverse(keys);
+    return keys;
+  }
+
+  /**
+   * Limit skips the offset, returns the limit, and reads no further
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(5, 10, scan);
+    op.open();
+    ArrayList<Integer> keys = keys(op);
+    assertEquals(5, keys.size());
+    for (int i = 0; i < 5; i++)
+      assertEquals(tuples.get(10 + i).getField(0), new IntField(keys.get(i)));
+    assertEquals(15, read[0]);
+
+    op.rewind();
+    assertEquals(keys, keys(op));
+    op.close();
+  }
+
+  /**
+   * A limit past the end of the child returns what the child has
+   */
+  @Test public void pastEnd() throws Exception {
+    Limit op = new Limit(10, 995, scan);
+    op.open();
+    assertEquals(5, keys(op).size());
+    op.close();
+
+    op = new Limit(0, 0, scan);
+    op.open();
+    assertTrue(!op.hasNext());
+    op.close();
+  }
+
+  /**
+   * TopN returns the first n tuples of the sort order
+   */
+  @Test public void topN() throws Exception {
+    TopN op = new TopN(0, true, 20, scan);
+    op.open();
+    assertEquals(sortedKeys(true).subList(0, 20), keys(op));
+    assertEquals(tuples.size(), read[0]);
+    op.rewind();
+    assertEquals(sortedKeys(true).subList(0, 20), keys(op));
+    op.close();
+
+    op = new TopN(0, false, 2000, scan);
+    op.open();
+    assertEquals(sortedKeys(false), keys(op));
+    op.close();
+
+    op = new TopN(0, false, 0, scan);
+    op.open();
+    assertTrue(!op.hasNext());
+    op.close();
+  }
+
+  /**
+   * A query with ORDER BY and LIMIT is planned with a TopN, and one with
+   * LIMIT alone with a Limit
+   */
+  @Test public void planner() throws Exception {
+    String name = "t" + UUID.randomUUID().toString().replace("-", "");
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 500, 1000, null, null, "c");
+    Database.getCatalog().addTable(hf, name);
+    TableStats.setTableStats(name, new TableStats(hf.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name
+        + " ORDER BY " + name + ".c0 DESC LIMIT 5 OFFSET 3;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator limit = ((Operator) plan).getChildren()[0];
+    assertTrue(limit instanceof Limit);
+    assertTrue(((Operator) limit).getChildren()[0] instanceof TopN);
+    plan.open();
+    ArrayList<Integer> keys = keys(plan);
+    plan.close();
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      expected.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    Collections.sort(expected, Collections.reverseOrder());
+    assertEquals(expected.subList(3, 8), keys);
+
+    lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " limit 7;");
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    plan.open();
+    assertEquals(7, keys(plan).size());
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Counts the tuples of a table
+   */
+  private static int count(HeapFile hf) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    int n = 0;
+    for (; it.hasNext(); it.next())
+      n++;
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return n;
+  }
+
+  /**
+   * A LIMIT on the query of an INSERT limits the tuples inserted, and a
+   * LIMIT on a DELETE is rejected rather than ignored
+   */
+  @Test public void insertDelete() throws Exception {
+    String src = "t" + UUID.randomUUID().toString().replace("-", "");
+    String dest = "t" + UUID.randomUUID().toString().replace("-", "");
+    HeapFile srcFile = SystemTestUtil.createRandomHeapFile(2, 500, 1000, null, null, "c");
+    HeapFile destFile = SystemTestUtil.createRandomHeapFile(2, 0, 1000, null, null, "c");
+    Database.getCatalog().addTable(srcFile, src);
+    Database.getCatalog().addTable(destFile, dest);
+    TableStats.setTableStats(src, new TableStats(srcFile.getId(), 1));
+
+    Parser p = new Parser();
+    p.processNextStatement("INSERT INTO " + dest + " SELECT * FROM " + src + " LIMIT 7 OFFSET 3;");
+    assertEquals(7, count(destFile));
+
+    p.processNextStatement("INSERT INTO " + dest + " VALUES (1, 2) LIMIT 0;");
+    assertEquals(7, count(destFile));
+
+    p.processNextStatement("DELETE FROM " + src + " LIMIT 5;");
+    assertEquals(500, count(srcFile));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
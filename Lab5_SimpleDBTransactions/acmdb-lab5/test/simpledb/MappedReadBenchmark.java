@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+/**
+ * Compares the channel read path with the memory-mapped read path of
+ * HeapFile and BTreeFile on a sequential scan and on random point lookups.
+ * Pages are read with readPage directly, bypassing the buffer pool, so that
+ * only the read path is measured. The files are small enough to stay in the
+ * OS page cache after the warm-up round.
+ * <p>
+ * Run with <tt>java -cp bin/src:bin/test:lib/* simpledb.MappedReadBenchmark [rows]</tt>
+ */
+public class MappedReadBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int LOOKUPS = 20000;
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private static void measure(String name, Workload w) throws Exception {
+        w.run(); // warm up the OS page cache and the JIT
+        DbFileChannel.resetStats();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            w.run();
+        long elapsed = System.nanoTime() - start;
+        long reads = DbFileChannel.getPageReads();
+        System.out.printf("%-28s %8.1f ms/round %8.0f ns/read%n", name,
+                elapsed / 1e6 / ROUNDS, (double) DbFileChannel.getPageReadNanos() / reads);
+    }
+
+    private static void heapScan(HeapFile hf) {
+        for (int i = 0; i < hf.numPages(); i++)
+            hf.readPage(new HeapPageId(hf.getId(), i));
+    }
+
+    private static void heapLookups(HeapFile hf) {
+        Random r = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++)
+            hf.readPage(new HeapPageId(hf.getId(), r.nextInt(hf.numPages())));
+    }
+
+    /**
+     * @return the leaf page that holds the given key, reading every page of
+     *         the path from the root pointer page
+     */
+    private static BTreeLeafPage findLeaf(BTreeFile bf, Field key) {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        BTreePageId pid = rootPtr.getRootId();
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
+            Iterator<BTreeEntry> it = page.iterator();
+            BTreeEntry e = null;
+            pid = null;
+            while (it.hasNext()) {
+                e = it.next();
+                if (key != null && key.compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey())) {
+                    pid = e.getLeftChild();
+                    break;
+                }
+            }
+            if (pid == null)
+                pid = key == null ? page.iterator().next().getLeftChild() : e.getRightChild();
+        }
+        return (BTreeLeafPage) bf.readPage(pid);
+    }
+
+    private static void btreeScan(BTreeFile bf) {
+        BTreeLeafPage leaf = findLeaf(bf, null);
+        while (leaf.getRightSiblingId() != null)
+            leaf = (BTreeLeafPage) bf.readPage(leaf.getRightSiblingId());
+    }
+
+    private static void btreeLookups(BTreeFile bf) {
+        Random r = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++)
+            findLeaf(bf, new IntField(r.nextInt(BTreeUtility.MAX_RAND_VALUE)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        final BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        System.out.printf("%d rows: heap file %d pages, B+ tree %d pages%n", rows, hf.numPages(), bf.numPages());
+
+        for (boolean mapped : new boolean[] { false, true }) {
+            hf.setMemoryMapped(mapped);
+            bf.setMemoryMapped(mapped);
+            String mode = mapped ? "mmap" : "channel";
+            measure("heap scan, " + mode, new Workload() {
+                public void run() { heapScan(hf); }
+            });
+            measure("heap point lookups, " + mode, new Workload() {
+                public void run() { heapLookups(hf); }
+            });
+            measure("btree scan, " + mode, new Workload() {
+                public void run() { btreeScan(bf); }
+            });
+            measure("btree point lookups, " + mode, new Workload() {
+                public void run() { btreeLookups(bf); }
+            });
+        }
+        DbFileChannel.closeAll();
+    }
+}
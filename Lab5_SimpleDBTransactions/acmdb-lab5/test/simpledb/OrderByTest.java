@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  TupleDesc td = Utility.getTupleDesc(2);
+  ArrayList<Tuple> tuples;
+  ArrayList<ArrayList<Integer>> lists;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    Random r = new Random(1);
+    tuples = new ArrayList<Tuple>();
+    lists = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 20000; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(5000), i });
+      tuples.add(t);
+      lists.add(SystemTestUtil.tupleToList(t));
+    }
+  }
+
+  /**
+   * Reads all the tuples of op, checking that they are sorted on field 0 and
+   * are the tuples of the test
+   */
+  private void checkSorted(OrderBy op, boolean asc) throws Exception {
+    ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+    Integer last = null;
+    while (op.hasNext()) {
+      ArrayList<Integer> row = SystemTestUtil.tupleToList(op.next());
+      if (last != null)
+        assertTrue(asc ? row.get(0) >= last : row.get(0) <= last);
+      last = row.get(0);
+      out.add(row);
+    }
+    assertEquals(lists.size(), out.size());
+    SystemTestUtil.matchTuples(new TupleIterator(td, tuples), out);
+  }
+
+  /**
+   * A child that fits in the memory budget is sorted without spilling
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, new TupleIterator(td, tuples));
+    op.open();
+    checkSorted(op, true);
+    assertEquals(0, op.getRuns());
+    assertEquals(0, op.getSpilledBytes());
+    op.close();
+  }
+
+  /**
+   * A child bigger than the memory budget is sorted in runs, which
+   * replacement selection makes longer than the budget
+   */
+  @Test public void external() throws Exception {
+    int memoryTuples = 500;
+    OrderBy op = new OrderBy(0, false, new TupleIterator(td, tuples),
+        memoryTuples * td.getSize());
+    op.open();
+    checkSorted(op, false);
+    assertTrue(op.getRuns() > 1);
+    // runs of random input average twice the heap size
+    assertTrue(op.getRuns() < tuples.size() / (memoryTuples * 3 / 2));
+    assertTrue(op.getSpilledBytes() >= (long) tuples.size() * td.getSize());
+
+    op.rewind();
+    checkSorted(op, false);
+    op.close();
+  }
+
+  /**
+   * Runs are merged in several passes when the budget cannot hold a read
+   * buffer for each of them
+   */
+  @Test public void multiPass() throws Exception {
+    OrderBy op = new OrderBy(0, true, new TupleIterator(td, tuples), 100 * td.getSize());
+    op.open();
+    checkSorted(op, true);
+    assertTrue(op.getRuns() > 2);
+    assertTrue(op.getSpilledBytes() > 2L * tuples.size() * td.getSize());
+    op.close();
+  }
+
+  /**
+   * Replacement selection writes sorted input as a single run
+   */
+  @Test public void sortedInput() throws Exception {
+    OrderBy sorted = new OrderBy(0, true, new TupleIterator(td, tuples));
+    sorted.open();
+    ArrayList<Tuple> input = new ArrayList<Tuple>();
+    while (sorted.hasNext())
+      input.add(sorted.next());
+    sorted.close();
+
+    OrderBy op = new OrderBy(0, true, new TupleIterator(td, input), 100 * td.getSize());
+    op.open();
+    checkSorted(op, true);
+    assertEquals(1, op.getRuns());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+    private String tableName;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "id", "name", "score" });
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td, HeapFile.PageFormat.PAX, false);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, tableName);
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("row" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(i % 10));
+        return t;
+    }
+
+    private void insert(int n) throws Exception {
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++)
+            batch.add(tuple(i));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A page written out and read back holds the same tuples, and its
+     * columns read the same values as its tuples
+     */
+    @Test public void roundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, page.getUsedSlots().length);
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+        page.deleteTuple(page.getTuple(3));
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        int[] slots = copy.getUsedSlots();
+        assertArrayEquals(new int[] { 0, 1, 2, 4, 5, 6, 7, 8, 9 }, slots);
+        int[] ids = copy.getIntColumn(0, slots);
+        Field[] names = copy.getColumn(1, slots);
+        for (int k = 0; k < slots.length; k++) {
+            assertEquals(slots[k], ids[k]);
+            assertEquals("row" + slots[k], ((StringField) names[k]).getValue());
+            Tuple t = copy.getTuple(slots[k]);
+            assertEquals(new IntField(slots[k]), t.getField(0));
+            assertEquals(new IntField(slots[k] % 10), t.getField(2));
+        }
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        // the values of a column are stored next to each other
+        byte[] data = copy.getPageData();
+        int header = (copy.getNumEmptySlots() + slots.length + 7) / 8;
+        assertEquals(5, data[header + 5 * 4 + 3]);
+
+        try {
+            copy.getIntColumn(1, slots);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tuples inserted through the buffer pool are read back by a SeqScan, and
+     * a ColumnScan returns only the requested columns
+     */
+    @Test public void columnScan() throws Exception {
+        insert(1000);
+        assertTrue(hf.numPages() > 1);
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        ss.open();
+        int n = 0;
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("row" + i, ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        assertEquals(1000, n);
+
+        ColumnScan cs = new ColumnScan(tid, hf.getId(), "t", new int[] { 2, 0 });
+        assertEquals(2, cs.getTupleDesc().numFields());
+        assertEquals("t.score", cs.getTupleDesc().getFieldName(0));
+        assertEquals("t.id", cs.getTupleDesc().getFieldName(1));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++)
+            expected.add(new ArrayList<Integer>(Arrays.asList(i % 10, i)));
+        SystemTestUtil.matchTuples(cs, expected);
+
+        // pages ruled out by a pushed down predicate are skipped
+        cs = new ColumnScan(tid, hf.getId(), "t", new int[] { 2, 0 });
+        cs.pushDownPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)));
+        cs.open();
+        n = 0;
+        while (cs.hasNext()) {
+            cs.next();
+            n++;
+        }
+        cs.close();
+        assertTrue(n >= 10 && n < 1000);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner scans a PAX table with a ColumnScan of the referenced
+     * columns, and the query returns the same rows
+     */
+    @Test public void planner() throws Exception {
+        insert(1000);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName, new TableStats(hf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.score", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("t.id", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        ColumnScan cs = (ColumnScan) ((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0];
+        assertArrayEquals(new int[] { 0, 2 }, cs.getColumns());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 3; i < 1000; i += 10)
+            expected.add(new ArrayList<Integer>(Arrays.asList(i)));
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addProjectField("*", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof ColumnScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+
+/**
+ * Compares summing two columns of a wide table with a SeqScan of a heap file
+ * in the fixed-width format and with a ColumnScan of the same table in the
+ * PAX format. The table has eight integer columns and two string columns.
+ * Both formats take the same number of pages, so they read the same bytes
+ * from disk. The buffer pool holds the whole table being scanned and the
+ * warm-up round reads it in, so the numbers are the CPU cost of going through the cached
+ * pages: a SeqScan creates every tuple, a ColumnScan reads two minipages.
+ * <p>
+ * Run with <tt>java -cp bin/src:bin/test:lib/* simpledb.PaxScanBenchmark [rows]</tt>
+ */
+public class PaxScanBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static long scan(DbIterator it, int a, int b) throws Exception {
+        long sum = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += ((IntField) t.getField(a)).getValue() + ((IntField) t.getField(b)).getValue();
+        }
+        it.close();
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Type[] types = new Type[10];
+        for (int i = 0; i < types.length; i++)
+            types[i] = i < 8 ? Type.INT_TYPE : Type.STRING_TYPE;
+        TupleDesc td = new TupleDesc(types);
+
+        File csv = File.createTempFile("wide", ".txt");
+        csv.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(csv));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < 8; j++)
+                bw.write((i * 31 + j) % 1000 + ",");
+            bw.write("name" + i % 100 + ",comment" + i + "\n");
+        }
+        bw.close();
+        File fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(csv, fixed, BufferPool.getPageSize(), types.length, types);
+
+        File pax = File.createTempFile("pax", ".dat");
+        pax.deleteOnExit();
+        pax.delete();
+        HeapFile rowTable = new HeapFile(fixed, td);
+        HeapFile paxTable = new HeapFile(pax, td, HeapFile.PageFormat.PAX, false);
+        Database.getCatalog().addTable(rowTable, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(paxTable, SystemTestUtil.getUUID());
+        // copy the table a page at a time, the buffer pool holds no more
+        DbFileIterator it = rowTable.iterator(new TransactionId());
+        it.open();
+        for (int p = 0; p < rowTable.numPages(); p++) {
+            PaxPage page = new PaxPage(new HeapPageId(paxTable.getId(), p), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0 && it.hasNext())
+                page.insertTuple(it.next());
+            paxTable.writePage(page);
+        }
+        it.close();
+
+        TransactionId tid = new TransactionId();
+        DbIterator[] scans = { new SeqScan(tid, rowTable.getId(), "t"),
+                new ColumnScan(tid, paxTable.getId(), "t", new int[] { 2, 5 }) };
+        int[][] fields = { { 2, 5 }, { 0, 1 } };
+        String[] names = { "row SeqScan", "PAX ColumnScan" };
+        for (int s = 0; s < scans.length; s++) {
+            Database.resetBufferPool(rowTable.numPages() + 10);
+            long sum = scan(scans[s], fields[s][0], fields[s][1]); // read the table in and warm up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++)
+                scan(scans[s], fields[s][0], fields[s][1]);
+            double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+            System.out.printf("%-15s %8.1f ms/scan (sum %d)%n", names[s], ms, sum);
+        }
+        DbFileChannel.closeAll();
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td, HeapFile.PageFormat.SLOTTED, false);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /**
+     * A page written out and read back holds the same tuples in the same slots
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid(0), HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, "row" + i));
+        page.deleteTuple(page.getTuple(3));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid(0), page.getPageData());
+        assertFalse(copy.isSlotUsed(3));
+        for (int i = 0; i < 10; i++) {
+            if (i == 3) continue;
+            Tuple t = copy.getTuple(i);
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("row" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Short strings take much less room than in the fixed-width format
+     */
+    @Test public void density() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid(0), HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abcdefgh"))) {
+            page.insertTuple(tuple(n, "abcdefgh"));
+            n++;
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixed);
+
+        try {
+            page.insertTuple(tuple(n, "abcdefgh"));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A page stored in the fixed-width format is rejected
+     */
+    @Test public void formatMarker() throws Exception {
+        HeapPage fixed = new HeapPage(pid(0), HeapPage.createEmptyPageData());
+        fixed.insertTuple(tuple(1, "a"));
+        try {
+            new SlottedHeapPage(pid(0), fixed.getPageData());
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The slot and the space of a deleted tuple are reused, even for a
+     * larger tuple
+     */
+    @Test public void reusesDeletedSlots() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid(0), HeapPage.createEmptyPageData());
+        String big = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        while (page.hasRoomFor(tuple(0, "ab")))
+            page.insertTuple(tuple(0, "ab"));
+        assertFalse(page.hasRoomFor(tuple(0, big)));
+
+        for (int i = 0; i < 40; i++)
+            page.deleteTuple(page.getTuple(i));
+        assertTrue(page.hasRoomFor(tuple(0, big)));
+        Tuple t = tuple(0, big);
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().tupleno());
+    }
+
+    /**
+     * Tuples inserted through the buffer pool are on disk after commit and
+     * gone after abort
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(tuple(i, "value " + i));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        // about 20 bytes a tuple, against 136 in the fixed-width format
+        assertTrue(hf.numPages() <= 10);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(-1, "aborted"));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(hf.readPage(pid(0)) instanceof SlottedHeapPage);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        boolean[] seen = new boolean[2000];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(i >= 0);
+            assertEquals("value " + i, ((StringField) t.getField(1)).getValue());
+            seen[i] = true;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, count);
+        for (boolean s : seen)
+            assertTrue(s);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,264 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  TupleDesc td = Utility.getTupleDesc(2);
+  ArrayList<Tuple> outer;
+  ArrayList<Tuple> inner;
+
+  /**
+   * Returns rows tuples sorted on their first field, whose values are drawn
+   * from keys values so that most of them are duplicated
+   */
+  private static ArrayList<Tuple> sortedTuples(int rows, int keys, long seed) {
+    Random r = new Random(seed);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(keys), i }));
+    Collections.sort(tuples, new TupleComparator(0, true));
+    return tuples;
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    outer = sortedTuples(300, 40, 1);
+    inner = sortedTuples(200, 40, 2);
+  }
+
+  /**
+   * Checks a SortMergeJoin against a nested loops join of the same tuples
+   */
+  private void checkJoin(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (Tuple t1 : outer) {
+      for (Tuple t2 : inner) {
+        if (pred.filter(t1, t2)) {
+          ArrayList<Integer> row = SystemTestUtil.tupleToList(t1);
+          row.addAll(SystemTestUtil.tupleToList(t2));
+          expected.add(row);
+        }
+      }
+    }
+    assertTrue(!expected.isEmpty());
+    SortMergeJoin join = new SortMergeJoin(pred, new TupleIterator(td, outer),
+        new TupleIterator(td, inner));
+    SystemTestUtil.matchTuples(join, expected);
+  }
+
+  /**
+   * Equality joins return every pair of tuples in matching duplicate runs
+   */
+  @Test public void equals() throws Exception {
+    checkJoin(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Range joins return the same tuples as nested loops joins
+   */
+  @Test public void ranges() throws Exception {
+    checkJoin(Predicate.Op.LESS_THAN);
+    checkJoin(Predicate.Op.LESS_THAN_OR_EQ);
+    checkJoin(Predicate.Op.GREATER_THAN);
+    checkJoin(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * The output of an equality join is sorted on the outer join field
+   */
+  @Test public void sortedOutput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, new TupleIterator(td, outer),
+        new TupleIterator(td, inner));
+    op.open();
+    int last = Integer.MIN_VALUE;
+    while (op.hasNext()) {
+      int key = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(key >= last);
+      last = key;
+    }
+    op.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, new TupleIterator(td, outer),
+        new TupleIterator(td, inner));
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    int again = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      again++;
+    }
+    assertEquals(count, again);
+    op.close();
+  }
+
+  /**
+   * Range joins read each child once, without rewinding either of them
+   */
+  @Test public void rangeNoRewind() throws Exception {
+    final int[] rewinds = new int[1];
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN }) {
+      DbIterator[] children = new DbIterator[2];
+      ArrayList<ArrayList<Tuple>> tuples = new ArrayList<ArrayList<Tuple>>();
+      tuples.add(outer);
+      tuples.add(inner);
+      for (int i = 0; i < 2; i++) {
+        children[i] = new TupleIterator(td, tuples.get(i)) {
+          private static final long serialVersionUID = 1L;
+
+          @Override public void rewind() {
+            rewinds[0]++;
+            super.rewind();
+          }
+        };
+      }
+      SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0), children[0], children[1]);
+      join.open();
+      int count = 0;
+      while (join.hasNext()) {
+        join.next();
+        count++;
+      }
+      join.close();
+      assertTrue(count > 0);
+    }
+    assertEquals(0, rewinds[0]);
+  }
+
+  /**
+   * SortMergeJoin cannot join on inequality
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    new SortMergeJoin(pred, new TupleIterator(td, outer), new TupleIterator(td, inner));
+  }
+
+  /**
+   * The optimizer uses a SortMergeJoin when both inputs are sorted on their
+   * join fields in ascending order
+   */
+  @Test public void planner() throws Exception {
+    TupleDesc td1 = new TupleDesc(Utility.getTypes(2), new String[] { "a.k", "a.v" });
+    TupleDesc td2 = new TupleDesc(Utility.getTypes(2), new String[] { "b.k", "b.v" });
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.k", "b.k", Predicate.Op.EQUALS);
+
+    DbIterator j = JoinOptimizer.instantiateJoin(lj,
+        new OrderBy(0, true, new TupleIterator(td1, outer)),
+        new OrderBy(0, true, new TupleIterator(td2, inner)));
+    assertTrue(j instanceof SortMergeJoin);
+
+    // unsorted and descending inputs are joined with a nested loops join
+    j = JoinOptimizer.instantiateJoin(lj, new TupleIterator(td1, outer),
+        new OrderBy(0, true, new TupleIterator(td2, inner)));
+    assertTrue(j instanceof Join);
+    j = JoinOptimizer.instantiateJoin(lj,
+        new OrderBy(0, false, new TupleIterator(td1, outer)),
+        new OrderBy(0, true, new TupleIterator(td2, inner)));
+    assertTrue(j instanceof Join);
+    j = JoinOptimizer.instantiateJoin(lj,
+        new OrderBy(1, true, new TupleIterator(td1, outer)),
+        new OrderBy(0, true, new TupleIterator(td2, inner)));
+    assertTrue(j instanceof Join);
+  }
+
+  /**
+   * Finds the first operator of the given class in a plan
+   */
+  private static DbIterator find(DbIterator plan, Class<?> c) {
+    if (c.isInstance(plan))
+      return plan;
+    if (plan instanceof Operator) {
+      for (DbIterator child : ((Operator) plan).getChildren()) {
+        DbIterator found = find(child, c);
+        if (found != null)
+          return found;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A query joining two B+ tree tables on their key fields is planned as a
+   * sort-merge join of their sequential scans, which read the tables in key
+   * order
+   */
+  @Test public void plannerBTreeScans() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+    String[] names = new String[2];
+    ArrayList<ArrayList<ArrayList<Integer>>> tables = new ArrayList<ArrayList<ArrayList<Integer>>>();
+    tables.add(tuples1);
+    tables.add(tuples2);
+    for (int i = 0; i < 2; i++) {
+      BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000 + 500 * i, 300, null, tables.get(i), 0);
+      // name the columns f0 and f1
+      bf = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "f"));
+      names[i] = "t" + UUID.randomUUID().toString().replace("-", "");
+      Database.getCatalog().addTable(bf, names[i]);
+      TableStats.setTableStats(names[i], new TableStats(bf.getId(), 1));
+    }
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM " + names[0] + ", "
+        + names[1] + " WHERE " + names[0] + ".f0 = " + names[1] + ".f0;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator j = find(plan, SortMergeJoin.class);
+    assertNotNull(j);
+    assertTrue(((Operator) j).getChildren()[0] instanceof SeqScan);
+    assertTrue(((Operator) j).getChildren()[1] instanceof SeqScan);
+
+    int[] counts = new int[301];
+    for (ArrayList<Integer> t : tuples2)
+      counts[t.get(0)]++;
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples1)
+      expected += counts[t.get(0)];
+    plan.open();
+    int rows = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      assertEquals(t.getField(0), t.getField(2));
+      rows++;
+    }
+    plan.close();
+    assertEquals(expected, rows);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
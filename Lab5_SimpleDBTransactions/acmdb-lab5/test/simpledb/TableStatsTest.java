@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -86,6 +87,26 @@ public class TableStatsTest extends SimpleDbTestBase {
 		
 	}
 	
+	/**
+	 * Statistics can be computed over a table of any kind of file, such as
+	 * a HashFile
+	 */
+	@Test public void hashFileScanCost() throws Exception {
+		File file = File.createTempFile("stats", ".dat");
+		file.deleteOnExit();
+		HashFile hf = new HashFile(file, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 2000; i++)
+			Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+		Database.getBufferPool().transactionComplete(tid);
+
+		TableStats stats = new TableStats(hf.getId(), IO_COST);
+		Assert.assertTrue(hf.numPages() > 1);
+		Assert.assertEquals(hf.numPages() * IO_COST, stats.estimateScanCost(), 1e-6);
+		Assert.assertEquals(2000, stats.totalTuples());
+	}
+
 	/**
 	 * Verify the table-cardinality estimates based on a selectivity estimate
 	 */
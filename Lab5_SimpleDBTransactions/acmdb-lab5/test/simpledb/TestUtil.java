@@ -219,6 +219,11 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
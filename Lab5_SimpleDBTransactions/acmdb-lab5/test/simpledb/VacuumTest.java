@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 1000;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int perPage;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, tuples);
+        perPage = (BufferPool.getPageSize() * 8) / (hf.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    /**
+     * Delete the tuples whose first field satisfies the predicate, and
+     * return the tuples left
+     */
+    private ArrayList<ArrayList<Integer>> delete(Predicate p) throws Exception {
+        return delete(p, null);
+    }
+
+    /**
+     * Delete the tuples whose first field satisfies the predicate together
+     * with their entries in an index, if not null, and return the tuples left
+     */
+    private ArrayList<ArrayList<Integer>> delete(Predicate p, SecondaryHashFile index) throws Exception {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (p.filter(t)) deleted.add(t);
+            else left.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            if (index != null) index.deleteEntry(tid, t);
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return left;
+    }
+
+    /**
+     * After most tuples are deleted, the file shrinks to the pages needed by
+     * the tuples left, which are all still there
+     */
+    @Test public void shrinks() throws Exception {
+        int pages = hf.numPages();
+        ArrayList<ArrayList<Integer>> left = delete(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(MAX_VALUE / 4)));
+        assertTrue(left.size() < tuples.size() / 2);
+        assertEquals(pages, hf.numPages());
+
+        int removed = hf.vacuum(2);
+        int needed = (left.size() + perPage - 1) / perPage;
+        assertEquals(needed, hf.numPages());
+        assertEquals(pages - needed, removed);
+        assertEquals((long) needed * BufferPool.getPageSize(), hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, left);
+
+        // the tuples are on disk, and the table is read back after a restart
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, hf.getFile());
+        assertEquals(needed, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, left);
+    }
+
+    /**
+     * Inserts after a vacuum fill the free slots left before appending pages,
+     * and a vacuum of a compact file changes nothing
+     */
+    @Test public void insertAfterVacuum() throws Exception {
+        ArrayList<ArrayList<Integer>> left = delete(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE / 2)));
+        hf.vacuum(1);
+        int pages = hf.numPages();
+        int free = pages * perPage - left.size();
+        assertEquals(0, hf.vacuum(1));
+        assertEquals(pages, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < free; i++) {
+            batch.add(Utility.getHeapTuple(new int[] { i, -i }));
+            left.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, hf.numPages());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * A table whose tuples are all deleted is truncated to no pages
+     */
+    @Test public void emptyTable() throws Exception {
+        ArrayList<ArrayList<Integer>> left = delete(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(Integer.MIN_VALUE)));
+        assertTrue(left.isEmpty());
+        hf.vacuum(4);
+        assertEquals(0, hf.numPages());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * The entries of a secondary index over the table follow the tuples the
+     * vacuum moves
+     */
+    @Test public void secondaryIndex() throws Exception {
+        File file = File.createTempFile("index", ".dat");
+        file.deleteOnExit();
+        SecondaryHashFile index = new SecondaryHashFile(file, hf.getId(), 0);
+        Database.getCatalog().addTable(index, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        ArrayList<ArrayList<Integer>> left = delete(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(MAX_VALUE / 4)), index);
+        assertTrue(hf.vacuum(2) > 0);
+
+        int[] counts = new int[MAX_VALUE / 4 + 1];
+        for (ArrayList<Integer> t : left)
+            counts[t.get(0)]++;
+        tid = new TransactionId();
+        for (int key = 0; key < counts.length; key++) {
+            DbFileIterator it = index.lookup(tid, new IntField(key));
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                assertEquals(new IntField(key), it.next().getField(0));
+                count++;
+            }
+            it.close();
+            assertEquals(counts[key], count);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int TUPLES_PER_PAGE =
+            (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    private static final int ROWS = 6 * TUPLES_PER_PAGE - 20;
+
+    private File file;
+    private HeapFile hf;
+
+    /**
+     * Create a table whose first column is clustered: row i is (i, ROWS - i)
+     */
+    @Before public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, ROWS - i)));
+        file = File.createTempFile("zonemap", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, file);
+    }
+
+    private PageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private int scan(TransactionId tid, Predicate... predicates) throws Exception {
+        DbFileIterator it = hf.iterator(tid, Arrays.asList(predicates));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Only the pages that may hold matching tuples are read
+     */
+    @Test public void skipsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(5 * TUPLES_PER_PAGE + 10));
+        assertEquals(ROWS - 5 * TUPLES_PER_PAGE, scan(tid, p));
+        for (int i = 0; i < 5; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, pid(i)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid(5)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // both predicates must hold: the second column decreases
+        tid = new TransactionId();
+        Predicate low = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2 * TUPLES_PER_PAGE));
+        Predicate high = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(ROWS - TUPLES_PER_PAGE));
+        assertEquals(TUPLES_PER_PAGE, scan(tid, low, high));
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid(0)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, scan(tid, new Predicate(0, Predicate.Op.EQUALS, new IntField(-1))));
+        assertEquals(ROWS, scan(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An uncommitted insert is seen by a scan of its transaction, and the zone
+     * map is persisted when the transaction commits
+     */
+    @Test public void insertAndPersist() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10 * ROWS));
+        TransactionId tid = new TransactionId();
+        assertEquals(0, scan(tid, p));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 20 * ROWS, 0 }));
+        assertEquals(TUPLES_PER_PAGE - 20 + 1, scan(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+
+        ZoneMap zm = new ZoneMap(new File(file.getPath() + ".zm"), hf.getTupleDesc());
+        assertTrue(zm.read(file, hf.numPages()));
+        assertTrue(zm.mightMatch(5, p));
+        assertFalse(zm.mightMatch(4, p));
+
+        // a heap file written after its zone map makes the zone map stale
+        assertTrue(file.setLastModified(System.currentTimeMillis() + 10000));
+        assertFalse(new ZoneMap(new File(file.getPath() + ".zm"), hf.getTupleDesc()).read(file, hf.numPages()));
+    }
+
+    /**
+     * A page written without some of its tuples has a narrower summary
+     */
+    @Test public void shrinksOnWrite() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        TransactionId tid = new TransactionId();
+        assertEquals(TUPLES_PER_PAGE, scan(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid(0), Permissions.READ_WRITE);
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().deleteTuple(tid, it.next());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, scan(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -49,16 +49,17 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			assertEquals(1, empty.numPages());
 		}
 
-		// the next 251 tuples should live on page 2 since they are greater than
-		// all existing tuples in the file
-		for (int i = 502; i < 753; ++i) {
+		// the next 452 tuples should live on page 2 since they are greater than
+		// all existing tuples in the file, and splitting the right edge of the
+		// tree only moved 50 tuples there
+		for (int i = 502; i < 954; ++i) {
 			tup = BTreeUtility.getBTreeTuple(i, 2);
 			empty.insertTuple(tid, tup);
 			assertEquals(3, empty.numPages());
 		}
 
 		// one more insert greater than 502 should cause page 2 to split
-		tup = BTreeUtility.getBTreeTuple(753, 2);
+		tup = BTreeUtility.getBTreeTuple(954, 2);
 		empty.insertTuple(tid, tup);
 		assertEquals(4, empty.numPages());
 